@@ -0,0 +1,61 @@
+package com.example.android.storeinventory;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the values the editor writes when an existing item is saved.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditorDiffTest {
+
+    private static final ItemSnapshot ORIGINAL = new ItemSnapshot(1, "Apples", null, 10, 3);
+
+    @Test
+    public void unchangedInput_writesNothing() {
+        ContentValues changed = EditorActivity.diffValues(ORIGINAL, input("Apples", "", 10, 3));
+        assertEquals(0, changed.size());
+    }
+
+    @Test
+    public void changedQuantity_writesOnlyQuantity() {
+        ContentValues changed = EditorActivity.diffValues(ORIGINAL, input("Apples", "", 12, 3));
+        assertEquals(1, changed.size());
+        assertEquals(Integer.valueOf(12), changed.getAsInteger(InventoryEntry.COLUMN_ITEM_QUANTITY));
+    }
+
+    @Test
+    public void changedText_writesOnlyText() {
+        ContentValues changed = EditorActivity.diffValues(ORIGINAL, input("Green apples", "Sour", 10, 3));
+        assertEquals(2, changed.size());
+        assertEquals("Green apples", changed.getAsString(InventoryEntry.COLUMN_ITEM_NAME));
+        assertEquals("Sour", changed.getAsString(InventoryEntry.COLUMN_ITEM_DESC));
+    }
+
+    @Test
+    public void unchangedText_isNotAChange() {
+        assertFalse(EditorActivity.hasChangedText(ORIGINAL, " Apples ", "", "10", "3"));
+    }
+
+    @Test
+    public void numberOutOfRange_isAChange() {
+        // Must not be parsed, it doesn't fit an int
+        assertTrue(EditorActivity.hasChangedText(ORIGINAL, "Apples", "", "99999999999", "3"));
+    }
+
+    private static ContentValues input(String name, String desc, int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, name);
+        values.put(InventoryEntry.COLUMN_ITEM_DESC, desc);
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, price);
+        return values;
+    }
+}
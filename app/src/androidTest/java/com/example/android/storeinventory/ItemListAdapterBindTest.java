@@ -0,0 +1,95 @@
+package com.example.android.storeinventory;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import com.example.android.storeinventory.data.TimingRegistry;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the bind path of the catalog rows, run through the adapter itself
+ * so the pending sales and the timing span are part of what is measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemListAdapterBindTest {
+
+    private static final String TAG = ItemListAdapterBindTest.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    /** Number of rows a screen recycles */
+    private static final int HOLDERS = 12;
+
+    @Test
+    public void bind10kRows_doesNotAllocate() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final Context context = instrumentation.getTargetContext();
+        final List<ItemSnapshot> items = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            items.add(new ItemSnapshot(i, "Item " + i, i % 3 == 0 ? null : "Description " + i, i * 7, i, true));
+        }
+        final long[] result = new long[3];
+
+        // The adapter posts its sales to the main thread, so it is made and bound there
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ItemListAdapter adapter = new ItemListAdapter(context, null);
+                FrameLayout parent = new FrameLayout(context);
+                ItemListAdapter.ItemViewHolder[] holders = new ItemListAdapter.ItemViewHolder[HOLDERS];
+                for (int i = 0; i < holders.length; i++) {
+                    holders[i] = adapter.onCreateViewHolder(parent, 0);
+                }
+
+                // Warm up, which also records the span once
+                for (int run = 0; run < 5; run++) {
+                    bindAll(adapter, holders, items);
+                }
+
+                Debug.startAllocCounting();
+                try {
+                    // The measure means nothing if the runtime doesn't count allocations
+                    Debug.resetThreadAllocSize();
+                    byte[] probe = new byte[4096];
+                    result[2] = Debug.getThreadAllocSize() >= probe.length ? 1 : 0;
+
+                    Debug.resetThreadAllocSize();
+                    long start = System.nanoTime();
+                    bindAll(adapter, holders, items);
+                    result[0] = System.nanoTime() - start;
+                    result[1] = Debug.getThreadAllocSize();
+                } finally {
+                    Debug.stopAllocCounting();
+                }
+            }
+        });
+
+        Assume.assumeTrue(result[2] == 1);
+        long elapsedNs = result[0];
+        long allocatedBytes = result[1];
+        Log.i(TAG, "bind10kRows: " + (elapsedNs / ROWS) + " ns/row, " + allocatedBytes + " bytes allocated");
+        assertTrue(TimingRegistry.getStats(TimingRegistry.SPAN_BIND_ROW).getCount() >= 6 * ROWS);
+        // Allow for the few bytes the allocation counter itself may report
+        assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < 1024);
+    }
+
+    private static void bindAll(ItemListAdapter adapter, ItemListAdapter.ItemViewHolder[] holders,
+                                List<ItemSnapshot> items) {
+        for (int position = 0; position < items.size(); position++) {
+            adapter.bindRow(holders[position % holders.length], items.get(position));
+        }
+    }
+}
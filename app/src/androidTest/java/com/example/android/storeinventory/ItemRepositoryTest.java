@@ -0,0 +1,148 @@
+package com.example.android.storeinventory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract;
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that observers of the same item share a single query.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemRepositoryTest {
+
+    private ContentResolver mContentResolver;
+    private ItemRepository mRepository;
+    private Uri mItemUri;
+    private final List<RecordingObserver> mObservers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mContentResolver = context.getContentResolver();
+        mRepository = ItemRepository.getInstance(context);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, "Repository test item");
+        values.put(InventoryEntry.COLUMN_ITEM_DESC, "Shared by the details and the editor");
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 10);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, 3);
+        mItemUri = mContentResolver.insert(InventoryEntry.CONTENT_URI, values);
+        assertNotNull(mItemUri);
+        // Deliver the insert now, so it can't reach the repository in the middle of a test
+        mContentResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_FLUSH_NOTIFICATIONS, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (RecordingObserver observer : mObservers) {
+                    mRepository.removeObserver(mItemUri, observer);
+                }
+            }
+        });
+        mContentResolver.delete(mItemUri, null, null);
+    }
+
+    @Test
+    public void concurrentObservers_shareOneQuery() throws InterruptedException {
+        final RecordingObserver details = new RecordingObserver();
+        final RecordingObserver editor = new RecordingObserver();
+        final int queriesBefore = queryCount();
+
+        // Both observers ask for the item before the first query returns
+        observe(details);
+        observe(editor);
+        details.await();
+        editor.await();
+        assertEquals(queriesBefore + 1, queryCount());
+        assertEquals("Repository test item", details.lastItem.getName());
+        assertEquals(details.lastItem, editor.lastItem);
+
+        // An observer added later is served from memory
+        RecordingObserver later = new RecordingObserver();
+        observe(later);
+        later.await();
+        assertEquals(queriesBefore + 1, queryCount());
+    }
+
+    @Test
+    public void itemChange_isLoadedOnceForAllObservers() throws InterruptedException {
+        RecordingObserver details = new RecordingObserver();
+        RecordingObserver editor = new RecordingObserver();
+        observe(details);
+        observe(editor);
+        details.await();
+        editor.await();
+        final int queriesBefore = queryCount();
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 7);
+        assertEquals(1, mContentResolver.update(mItemUri, values, null, null));
+        mContentResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_FLUSH_NOTIFICATIONS, null, null);
+
+        details.await();
+        editor.await();
+        assertEquals(7, details.lastItem.getQuantity());
+        assertEquals(7, editor.lastItem.getQuantity());
+        assertEquals(queriesBefore + 1, queryCount());
+    }
+
+    private void observe(final RecordingObserver observer) {
+        mObservers.add(observer);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRepository.observe(mItemUri, observer);
+            }
+        });
+    }
+
+    private int queryCount() {
+        final int[] count = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = mRepository.getQueryCount();
+            }
+        });
+        return count[0];
+    }
+
+    private static class RecordingObserver implements ItemRepository.Observer {
+        final Semaphore calls = new Semaphore(0);
+        volatile ItemSnapshot lastItem;
+
+        @Override
+        public void onItemChanged(long id, ItemSnapshot item) {
+            lastItem = item;
+            calls.release();
+        }
+
+        /** Wait for the next call of the observer */
+        void await() throws InterruptedException {
+            assertTrue(calls.tryAcquire(5, TimeUnit.SECONDS));
+        }
+    }
+}
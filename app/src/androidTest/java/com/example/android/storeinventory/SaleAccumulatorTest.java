@@ -0,0 +1,139 @@
+package com.example.android.storeinventory;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the sale taps merged by the catalog.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SaleAccumulatorTest {
+
+    /** Not a valid item id, so the provider throws on the sale */
+    private static final long INVALID_ID = -1;
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mContentResolver;
+    private SaleAccumulator mSaleAccumulator;
+    private Uri mItemUri;
+    private final CountDownLatch mSold = new CountDownLatch(1);
+    private final CountDownLatch mFailed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContentResolver = mInstrumentation.getTargetContext().getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, "Sale test item");
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 10);
+        mItemUri = mContentResolver.insert(InventoryEntry.CONTENT_URI, values);
+        assertNotNull(mItemUri);
+
+        final InventoryWriter writer = InventoryWriter.getInstance(mInstrumentation.getTargetContext());
+        // The accumulator posts to the main thread, it is made and used there
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSaleAccumulator = new SaleAccumulator(writer, new SaleAccumulator.Listener() {
+                    @Override
+                    public void onPendingUnitsChanged(long id) {
+                        if (id == ContentUris.parseId(mItemUri)) {
+                            mSold.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onSaleRejected(long id) {
+                    }
+
+                    @Override
+                    public void onSaleFailed(long id) {
+                        mFailed.countDown();
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(mItemUri, null, null);
+    }
+
+    @Test
+    public void mergedTaps_areOneWrite() throws InterruptedException {
+        final long id = ContentUris.parseId(mItemUri);
+        long savedWrites = SaleAccumulator.getSavedWriteCount();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(mSaleAccumulator.addSale(id, 10));
+                }
+                mSaleAccumulator.flushAll();
+            }
+        });
+
+        assertTrue(mSold.await(5, TimeUnit.SECONDS));
+        // Three taps, a single sale of all their units
+        assertEquals(savedWrites + 2, SaleAccumulator.getSavedWriteCount());
+        Cursor cursor = mContentResolver.query(MovementEntry.buildItemMovementsUri(id),
+                new String[] { MovementEntry.COLUMN_DELTA },
+                MovementEntry.COLUMN_REASON + " = " + MovementEntry.REASON_SALE, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(-3, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void failedSale_returnsTheUnitsToTheStock() throws InterruptedException {
+        final long savedWrites = SaleAccumulator.getSavedWriteCount();
+        final int[] pendingUnits = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(mSaleAccumulator.addSale(INVALID_ID, 5));
+                assertTrue(mSaleAccumulator.addSale(INVALID_ID, 5));
+                mSaleAccumulator.flushAll();
+                pendingUnits[0] = mSaleAccumulator.getPendingUnits(INVALID_ID);
+            }
+        });
+        assertEquals(2, pendingUnits[0]);
+
+        assertTrue(mFailed.await(5, TimeUnit.SECONDS));
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pendingUnits[0] = mSaleAccumulator.getPendingUnits(INVALID_ID);
+            }
+        });
+        assertEquals(0, pendingUnits[0]);
+        // Nothing was written, so nothing was saved either
+        assertEquals(savedWrites, SaleAccumulator.getSavedWriteCount());
+    }
+}
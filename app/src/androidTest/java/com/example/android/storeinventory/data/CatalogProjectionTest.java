@@ -0,0 +1,138 @@
+package com.example.android.storeinventory.data;
+
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test measuring what the catalog projection costs in cursor window fills and
+ * memory, with the full description and with the description preview.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogProjectionTest {
+
+    private static final String TAG = CatalogProjectionTest.class.getSimpleName();
+
+    private static final int ROWS = 50000;
+
+    /** Length of the description of every test item, like a real product description */
+    private static final int DESC_LENGTH = 400;
+
+    private static final String[] FULL_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC,
+            InventoryEntry.COLUMN_ITEM_QUANTITY };
+
+    private static final String[] PREVIEW_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC_PREVIEW,
+            InventoryEntry.COLUMN_ITEM_QUANTITY };
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = TestDatabases.open(mContext);
+        char[] descChars = new char[DESC_LENGTH];
+        Arrays.fill(descChars, 'x');
+        TestDatabases.insertItems(mDbHelper.getWritableDatabase(), ROWS, new String(descChars));
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+    }
+
+    @Test
+    public void expandProjection_computesPreviewInSql() {
+        String[] expanded = InventoryProvider.expandProjection(PREVIEW_PROJECTION);
+        assertTrue(expanded[2].startsWith("substr("));
+        assertTrue(expanded[2].endsWith(" AS " + InventoryEntry.COLUMN_ITEM_DESC_PREVIEW));
+        // The projection of the caller is left alone
+        assertEquals(InventoryEntry.COLUMN_ITEM_DESC_PREVIEW, PREVIEW_PROJECTION[2]);
+        assertSame(FULL_PROJECTION, InventoryProvider.expandProjection(FULL_PROJECTION));
+    }
+
+    @Test
+    public void previewProjection_needsFewerWindowFills() {
+        Measurement full = scan(FULL_PROJECTION);
+        Measurement preview = scan(InventoryProvider.expandProjection(PREVIEW_PROJECTION));
+
+        Log.i(TAG, "full description: " + full);
+        Log.i(TAG, "description preview: " + preview);
+
+        assertEquals(ROWS, full.rows);
+        assertEquals(ROWS, preview.rows);
+        assertEquals(InventoryEntry.DESC_PREVIEW_LENGTH, preview.maxDescLength);
+        assertTrue(preview.windowFills < full.windowFills);
+        assertTrue(preview.descChars < full.descChars);
+    }
+
+    /**
+     * Walk the whole cursor like the catalog loader does, counting every time the cursor
+     * window is filled with a new range of rows.
+     */
+    private Measurement scan(String[] projection) {
+        Measurement measurement = new Measurement();
+        long start = System.nanoTime();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(InventoryEntry.TABLE_NAME, projection,
+                null, null, null, null, null);
+        try {
+            AbstractWindowedCursor windowedCursor = (AbstractWindowedCursor) cursor;
+            int lastWindowStart = -1;
+            while (cursor.moveToNext()) {
+                int windowStart = windowedCursor.getWindow().getStartPosition();
+                if (windowStart != lastWindowStart) {
+                    measurement.windowFills++;
+                    measurement.rowsPerWindow = Math.max(measurement.rowsPerWindow,
+                            windowedCursor.getWindow().getNumRows());
+                    lastWindowStart = windowStart;
+                }
+                String desc = cursor.getString(2);
+                measurement.descChars += desc.length();
+                measurement.maxDescLength = Math.max(measurement.maxDescLength, desc.length());
+                measurement.rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        measurement.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return measurement;
+    }
+
+    private static class Measurement {
+        int rows;
+        int windowFills;
+        int rowsPerWindow;
+        long descChars;
+        int maxDescLength;
+        long elapsedMs;
+
+        @Override
+        public String toString() {
+            // Every char of a TEXT value is held in the window as at least one UTF-8 byte
+            return rows + " rows, " + windowFills + " window fills, up to " + rowsPerWindow
+                    + " rows per window, " + descChars + " description chars read, "
+                    + elapsedMs + " ms";
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of wiping a large inventory and reclaiming the space it used.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMaintenanceTest {
+
+    private static final String TAG = DatabaseMaintenanceTest.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = TestDatabases.open(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mDatabaseFile = mContext.getDatabasePath(TestDatabases.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+    }
+
+    @Test
+    public void newDatabase_usesIncrementalVacuum() {
+        assertEquals(DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null));
+    }
+
+    @Test
+    public void reclaimSpace_switchesOlderDatabases() {
+        // A database created before auto-vacuum was enabled
+        mDatabase.execSQL("PRAGMA auto_vacuum = 0");
+        mDatabase.execSQL("VACUUM");
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null));
+
+        DatabaseMaintenance.reclaimSpace(mDatabase);
+        assertEquals(DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null));
+    }
+
+    @Test
+    public void truncateItems_wipesAndShrinksTheDatabase() {
+        TestDatabases.insertItems(mDatabase, ROWS);
+        checkpoint();
+        long fullSize = mDatabaseFile.length();
+
+        long start = System.nanoTime();
+        assertEquals(ROWS, DatabaseMaintenance.truncateItems(mDatabase));
+        long truncateMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        long reclaimed = DatabaseMaintenance.reclaimSpace(mDatabase);
+        long reclaimMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long emptySize = mDatabaseFile.length();
+        Log.i(TAG, "truncate: " + ROWS + " rows in " + truncateMs + " ms, " + reclaimed
+                + " pages reclaimed in " + reclaimMs + " ms, " + fullSize + " -> " + emptySize + " bytes");
+
+        // A truncate doesn't depend on the number of rows, a delete row by row takes seconds
+        assertTrue("Truncate took " + truncateMs + " ms", truncateMs < 2000);
+        assertTrue("Database still has " + emptySize + " bytes", emptySize < fullSize / 10);
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "PRAGMA freelist_count", null));
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, InventoryEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, MovementEntry.TABLE_NAME));
+        // Counting the index itself would read the items table, its own rows are counted instead
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, InventoryDbHelper.TABLE_ITEMS_FTS + "_docsize"));
+        assertEquals("0:0:0:0", DatabaseUtils.stringForQuery(mDatabase, "SELECT "
+                + StatsEntry.COLUMN_SKU_COUNT + " || ':' || " + StatsEntry.COLUMN_TOTAL_UNITS
+                + " || ':' || " + StatsEntry.COLUMN_TOTAL_VALUE + " || ':' || "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " FROM " + StatsEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void truncateItems_keepsTheTriggers() {
+        TestDatabases.insertItems(mDatabase, ROWS);
+        List<String> triggers = triggers();
+        assertFalse(triggers.isEmpty());
+        DatabaseMaintenance.truncateItems(mDatabase);
+        assertEquals(triggers, triggers());
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, "Maintenance test item");
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 4);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, 5);
+        long id = mDatabase.insert(InventoryEntry.TABLE_NAME, null, values);
+
+        // The search index, the statistics and the ledger all follow the new item
+        assertEquals(id, DatabaseUtils.longForQuery(mDatabase, "SELECT docid FROM "
+                + InventoryDbHelper.TABLE_ITEMS_FTS + " WHERE " + InventoryDbHelper.TABLE_ITEMS_FTS
+                + " MATCH 'maintenance'", null));
+        assertEquals(20, DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " FROM " + StatsEntry.TABLE_NAME, null));
+        assertTrue(StockLedger.append(mDatabase, id, -1, MovementEntry.REASON_SALE));
+        assertEquals(3, DatabaseUtils.longForQuery(mDatabase, "SELECT " + InventoryEntry.COLUMN_ITEM_QUANTITY
+                + " FROM " + InventoryEntry.TABLE_NAME, null));
+    }
+
+    /**
+     * Return the name and the definition of every trigger, by name.
+     */
+    private List<String> triggers() {
+        List<String> triggers = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("SELECT name, sql FROM sqlite_master"
+                + " WHERE type = 'trigger' ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                triggers.add(cursor.getString(0) + ": " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return triggers;
+    }
+
+    /**
+     * Write the pages of the log back into the database file, so its size is up to date.
+     */
+    private void checkpoint() {
+        DatabaseUtils.longForQuery(mDatabase, "PRAGMA wal_checkpoint", null);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.storeinventory.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test for the journaling setup and the catalog indexes of {@link InventoryDbHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryDbHelperTest {
+
+    private static final String TAG = InventoryDbHelperTest.class.getSimpleName();
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+    }
+
+    @Test
+    public void writeAheadLogging_isEnabledByDefault() {
+        mDbHelper = TestDatabases.open(mContext);
+        assertTrue(mDbHelper.getWritableDatabase().isWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void writeAheadLogging_canBeDisabled() {
+        mDbHelper = TestDatabases.open(mContext, false);
+        assertFalse(mDbHelper.getWritableDatabase().isWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void query_isNotBlockedByOpenWriteTransaction() throws Exception {
+        mDbHelper = TestDatabases.open(mContext);
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TestDatabases.insertItems(database, 100);
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                database.beginTransaction();
+                try {
+                    TestDatabases.insertItems(database, 1);
+                    writing.countDown();
+                    // Keep the write transaction open until the reader has finished
+                    readDone.await(5, TimeUnit.SECONDS);
+                    database.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        // The reader still sees the last committed state while the write is in progress
+        assertEquals(100, countItems(mDbHelper.getReadableDatabase()));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        readDone.countDown();
+        writer.join();
+
+        assertTrue("Read took " + elapsedMs + " ms", elapsedMs < 1000);
+        assertEquals(101, countItems(database));
+    }
+
+    @Test
+    public void readLatency_duringWriteHeavyLoop() throws Exception {
+        mDbHelper = TestDatabases.open(mContext);
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TestDatabases.insertItems(database, 1000);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    database.beginTransaction();
+                    try {
+                        TestDatabases.insertItems(database, 50);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                }
+            }
+        });
+        writer.start();
+
+        final int reads = 200;
+        long[] latenciesNs = new long[reads];
+        try {
+            for (int i = 0; i < reads; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = mDbHelper.getReadableDatabase().query(InventoryEntry.TABLE_NAME,
+                        new String[] { InventoryEntry._ID, InventoryEntry.COLUMN_ITEM_NAME },
+                        InventoryEntry._ID + "=?", new String[] { String.valueOf(i + 1) },
+                        null, null, null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+                latenciesNs[i] = System.nanoTime() - start;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+
+        Arrays.sort(latenciesNs);
+        long medianUs = TimeUnit.NANOSECONDS.toMicros(latenciesNs[reads / 2]);
+        long p99Us = TimeUnit.NANOSECONDS.toMicros(latenciesNs[reads * 99 / 100]);
+        Log.i(TAG, "readLatency_duringWriteHeavyLoop: median " + medianUs + " us, p99 " + p99Us + " us");
+        assertTrue("Median read latency " + medianUs + " us", medianUs < 50000);
+    }
+
+    @Test
+    public void catalogSorts_comeFromTheIndexes() {
+        mDbHelper = TestDatabases.open(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TestDatabases.insertItems(database, 100);
+        database.execSQL("ANALYZE");
+
+        // The same sort orders as the provider, the rows of the same value sorted by _id
+        assertPlanUsesIndex(database, "ORDER BY " + InventoryEntry.COLUMN_ITEM_NAME + ", " + InventoryEntry._ID,
+                InventoryDbHelper.INDEX_ITEM_NAME);
+        assertPlanUsesIndex(database, "ORDER BY " + InventoryEntry.COLUMN_ITEM_QUANTITY + ", " + InventoryEntry._ID,
+                InventoryDbHelper.INDEX_ITEM_QUANTITY);
+        assertPlanUsesIndex(database, "ORDER BY " + InventoryEntry.COLUMN_ITEM_PRICE + ", " + InventoryEntry._ID,
+                InventoryDbHelper.INDEX_ITEM_PRICE);
+    }
+
+    @Test
+    public void catalogFilters_comeFromTheIndexes() {
+        mDbHelper = TestDatabases.open(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TestDatabases.insertItems(database, 100);
+        database.execSQL("ANALYZE");
+
+        // The same conditions as the provider, low and out of stock, then a price range
+        assertPlanUsesIndex(database, "WHERE " + InventoryEntry.COLUMN_ITEM_QUANTITY + " < 5",
+                InventoryDbHelper.INDEX_ITEM_QUANTITY);
+        assertPlanUsesIndex(database, "WHERE " + InventoryEntry.COLUMN_ITEM_QUANTITY + " = 0",
+                InventoryDbHelper.INDEX_ITEM_QUANTITY);
+        assertPlanUsesIndex(database, "WHERE " + InventoryEntry.COLUMN_ITEM_PRICE + " >= 10 AND "
+                + InventoryEntry.COLUMN_ITEM_PRICE + " <= 12", InventoryDbHelper.INDEX_ITEM_PRICE);
+    }
+
+    /**
+     * Check that the query of the items with the given clauses reads the given index and never
+     * sorts its rows in a temporary b-tree.
+     */
+    private static void assertPlanUsesIndex(SQLiteDatabase database, String clauses, String index) {
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN SELECT " + InventoryEntry._ID
+                + " FROM " + InventoryEntry.TABLE_NAME + " " + clauses, null);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(TAG, clauses + ":\n" + plan);
+        assertTrue(clauses + " doesn't use " + index + ":\n" + plan, plan.indexOf(index) != -1);
+        assertEquals(clauses + " sorts in a temporary b-tree:\n" + plan, -1, plan.indexOf("TEMP B-TREE"));
+    }
+
+    private static int countItems(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + InventoryEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.storeinventory.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test for the schema migrations of {@link InventoryDbHelper}. Every test starts
+ * from a database file written with the version 1 schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryDbMigrationTest {
+
+    private static final String TAG = InventoryDbMigrationTest.class.getSimpleName();
+
+    /** The database created at the current version, to compare the upgraded one with */
+    private static final String NEW_DATABASE_NAME = "inventory_migration_fresh.db";
+
+    /** The items table exactly as it was created by version 1 of the app */
+    private static final String SQL_CREATE_ITEMS_TABLE_V1 = "CREATE TABLE items ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "desc TEXT, "
+            + "quantity INTEGER NOT NULL DEFAULT 0,"
+            + "price INTEGER NOT NULL DEFAULT 0);";
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TestDatabases.DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsRowsAndAddsIndexes() {
+        createVersion1Database(100);
+
+        mDbHelper = new InventoryDbHelper(mContext, TestDatabases.DATABASE_NAME, true);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        assertEquals(InventoryDbHelper.DATABASE_VERSION, database.getVersion());
+        assertEquals(100, countRows(database));
+        Set<String> indexes = readSchemaNames(database, "index");
+        assertTrue(indexes.contains(InventoryDbHelper.INDEX_ITEM_NAME));
+        assertTrue(indexes.contains(InventoryDbHelper.INDEX_ITEM_QUANTITY));
+        assertTrue(indexes.contains(InventoryDbHelper.INDEX_ITEM_PRICE));
+    }
+
+    @Test
+    public void upgradeFromVersion1_aggregatesExistingRowsIntoStats() {
+        createVersion1Database(100);
+
+        mDbHelper = new InventoryDbHelper(mContext, TestDatabases.DATABASE_NAME, true);
+        Cursor cursor = mDbHelper.getReadableDatabase().query(StatsEntry.TABLE_NAME, null,
+                null, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            // Quantities are i % 50 and prices i % 1000 for i in 0..99
+            assertEquals(100, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_SKU_COUNT)));
+            assertEquals(2450, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_TOTAL_UNITS)));
+            assertEquals(10, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_LOW_STOCK_COUNT)));
+            // The ledger of an upgraded database was never compacted
+            assertEquals(0, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_LAST_COMPACTION)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_startsLedgerWithCurrentQuantities() {
+        createVersion1Database(100);
+
+        mDbHelper = new InventoryDbHelper(mContext, TestDatabases.DATABASE_NAME, true);
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        assertTrue(readSchemaNames(database, "index").contains(InventoryDbHelper.INDEX_MOVEMENT_ITEM));
+        // One checkpoint per item, holding its quantity
+        Cursor cursor = database.rawQuery("SELECT COUNT(*), SUM(" + MovementEntry.COLUMN_DELTA + "), "
+                + "MAX(" + MovementEntry.COLUMN_REASON + ") FROM " + MovementEntry.TABLE_NAME, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(100, cursor.getInt(0));
+            assertEquals(2450, cursor.getLong(1));
+            assertEquals(MovementEntry.REASON_CHECKPOINT, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_matchesFreshSchema() {
+        createVersion1Database(0);
+
+        mDbHelper = new InventoryDbHelper(mContext, TestDatabases.DATABASE_NAME, true);
+        InventoryDbHelper freshHelper = new InventoryDbHelper(mContext, NEW_DATABASE_NAME, true);
+        try {
+            SQLiteDatabase upgraded = mDbHelper.getWritableDatabase();
+            SQLiteDatabase fresh = freshHelper.getWritableDatabase();
+            assertEquals(readSchemaNames(fresh, "table"), readSchemaNames(upgraded, "table"));
+            assertEquals(readSchemaNames(fresh, "index"), readSchemaNames(upgraded, "index"));
+            assertEquals(readSchemaNames(fresh, "trigger"), readSchemaNames(upgraded, "trigger"));
+        } finally {
+            freshHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_isFastOnLargeTable() {
+        createVersion1Database(100000);
+
+        mDbHelper = new InventoryDbHelper(mContext, TestDatabases.DATABASE_NAME, true);
+        long start = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.i(TAG, "upgradeFromVersion1_isFastOnLargeTable: upgraded 100000 rows in " + elapsedMs + " ms");
+
+        assertEquals(100000, countRows(database));
+        assertTrue("Upgrade took " + elapsedMs + " ms", elapsedMs < 30000);
+    }
+
+    private void createVersion1Database(int rows) {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(TestDatabases.DATABASE_NAME), null);
+        try {
+            database.execSQL(SQL_CREATE_ITEMS_TABLE_V1);
+            database.beginTransaction();
+            try {
+                SQLiteStatement insert = database.compileStatement(
+                        "INSERT INTO items (name, desc, quantity, price) VALUES (?, ?, ?, ?)");
+                for (int i = 0; i < rows; i++) {
+                    insert.bindString(1, "Item " + i);
+                    insert.bindString(2, "Description of item " + i);
+                    insert.bindLong(3, i % 50);
+                    insert.bindLong(4, i % 1000);
+                    insert.executeInsert();
+                }
+                insert.close();
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            database.setVersion(1);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static int countRows(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + InventoryEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Set<String> readSchemaNames(SQLiteDatabase database, String type) {
+        Set<String> names = new HashSet<>();
+        Cursor cursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = ? AND name NOT LIKE 'sqlite_%'",
+                new String[] { type });
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
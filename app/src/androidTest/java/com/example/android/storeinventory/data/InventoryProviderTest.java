@@ -0,0 +1,557 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the provider, through the content resolver like the app uses it.
+ * Every test item is named with {@link #NAME_PREFIX} and deleted afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderTest {
+
+    /** Prefix of the names of the test items, used to find and remove them */
+    private static final String NAME_PREFIX = "Provider test ";
+
+    /** Selection of the test items */
+    private static final String SELECTION_TEST_ITEMS = InventoryEntry.COLUMN_ITEM_NAME + " LIKE ?";
+
+    /** Columns of the statistics, in the order of the arrays returned by queryStats */
+    private static final String[] STATS_PROJECTION = {
+            StatsEntry.COLUMN_SKU_COUNT,
+            StatsEntry.COLUMN_TOTAL_UNITS,
+            StatsEntry.COLUMN_TOTAL_VALUE,
+            StatsEntry.COLUMN_LOW_STOCK_COUNT };
+
+    /** Time given to the system to deliver the notifications sent to the observers */
+    private static final long NOTIFICATION_DELIVERY_MS = 500;
+
+    private ContentResolver mContentResolver;
+    private ChangeCounter mChangeCounter;
+
+    @Before
+    public void setUp() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (null != mChangeCounter) {
+            mContentResolver.unregisterContentObserver(mChangeCounter);
+        }
+        mContentResolver.delete(InventoryEntry.CONTENT_URI, SELECTION_TEST_ITEMS,
+                new String[] { NAME_PREFIX + "%" });
+    }
+
+    @Test
+    public void bulkInsert_skipsInvalidRowsAndNotifiesOnce() throws InterruptedException {
+        startCountingChanges();
+        ContentValues[] values = new ContentValues[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = item("bulk " + i, i, i);
+        }
+        values[10].put(InventoryEntry.COLUMN_ITEM_NAME, "");
+        values[20].put(InventoryEntry.COLUMN_ITEM_QUANTITY, -1);
+
+        assertEquals(98, mContentResolver.bulkInsert(InventoryEntry.CONTENT_URI, values));
+        assertEquals(98, countTestItems());
+        // One transaction, one notification for all the rows
+        assertEquals(1, countChanges());
+    }
+
+    @Test
+    public void bulkInsert_withoutNotify_isNotNotified() throws InterruptedException {
+        startCountingChanges();
+        ContentValues[] values = new ContentValues[10];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = item("silent " + i, i, i);
+        }
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryEntry.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+
+        assertEquals(values.length, mContentResolver.bulkInsert(uri, values));
+        assertEquals(values.length, countTestItems());
+        assertEquals(0, countChanges());
+    }
+
+    @Test
+    public void applyBatch_rollsBackWhenAnOperationFails() throws Exception {
+        startCountingChanges();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(InventoryEntry.CONTENT_URI)
+                .withValues(item("batch apples", 1, 1))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(InventoryEntry.CONTENT_URI)
+                .withValues(item("batch pears", 2, 2))
+                .build());
+        // There are only two test items, so the last operation fails
+        operations.add(ContentProviderOperation.newAssertQuery(InventoryEntry.CONTENT_URI)
+                .withSelection(SELECTION_TEST_ITEMS, new String[] { NAME_PREFIX + "%" })
+                .withExpectedCount(3)
+                .build());
+
+        try {
+            applyBatch(operations);
+            fail("Batch applied with a failing operation");
+        } catch (OperationApplicationException e) {
+            // Expected, the assert doesn't hold
+        }
+        assertEquals(0, countTestItems());
+        assertEquals(0, countChanges());
+    }
+
+    @Test
+    public void applyBatch_notifiesOncePerUri() throws Exception {
+        startCountingChanges();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            operations.add(ContentProviderOperation.newInsert(InventoryEntry.CONTENT_URI)
+                    .withValues(item("batch " + i, i, i))
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(InventoryEntry.CONTENT_URI)
+                .withSelection(SELECTION_TEST_ITEMS, new String[] { NAME_PREFIX + "%" })
+                .withValue(InventoryEntry.COLUMN_ITEM_PRICE, 9)
+                .build());
+
+        ContentProviderResult[] results = applyBatch(operations);
+        assertEquals(4, results.length);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(results[i].uri);
+        }
+        assertEquals(Integer.valueOf(3), results[3].count);
+        assertEquals(3, countTestItems());
+        // The inserts and the update all changed the items, a single URI
+        assertEquals(1, countChanges());
+    }
+
+    @Test
+    public void sell_neverTakesTheStockBelowZero() {
+        Uri itemUri = insertItem("sale", 3, 1);
+
+        Bundle result = moveStock(InventoryContract.METHOD_SELL, itemUri, 2);
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_SOLD));
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_QUANTITY));
+
+        // Not enough units left, nothing is sold
+        result = moveStock(InventoryContract.METHOD_SELL, itemUri, 2);
+        assertFalse(result.getBoolean(InventoryContract.EXTRA_SOLD));
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_QUANTITY));
+        assertEquals(1, queryQuantity(itemUri));
+
+        result = moveStock(InventoryContract.METHOD_RECEIVE, itemUri, 4);
+        assertEquals(5, result.getInt(InventoryContract.EXTRA_QUANTITY));
+        result = moveStock(InventoryContract.METHOD_SELL, itemUri, 5);
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_SOLD));
+        assertEquals(0, queryQuantity(itemUri));
+    }
+
+    @Test
+    public void sell_missingItem_isNotSold() {
+        Uri itemUri = insertItem("deleted", 3, 1);
+        assertEquals(1, mContentResolver.delete(itemUri, null, null));
+
+        Bundle result = moveStock(InventoryContract.METHOD_SELL, itemUri, 1);
+        assertFalse(result.getBoolean(InventoryContract.EXTRA_SOLD));
+        assertEquals(-1, result.getInt(InventoryContract.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void pages_holdEveryItemOnceInOrder() {
+        ContentValues[] values = new ContentValues[25];
+        for (int i = 0; i < values.length; i++) {
+            // Many items share a quantity, the pages break ties by _id
+            values[i] = item("page " + i, i % 4, 1);
+        }
+        assertEquals(values.length, mContentResolver.bulkInsert(InventoryEntry.CONTENT_URI, values));
+
+        List<Integer> pageSizes = new ArrayList<>();
+        Set<Long> ids = new HashSet<>();
+        String afterKey = null;
+        long afterId = -1;
+        int pageSize;
+        do {
+            Uri pageUri = InventoryEntry.buildPageUri(InventoryEntry.COLUMN_ITEM_QUANTITY, 7, afterKey, afterId);
+            Cursor cursor = mContentResolver.query(pageUri,
+                    new String[] { InventoryEntry._ID, InventoryEntry.COLUMN_ITEM_QUANTITY },
+                    SELECTION_TEST_ITEMS, new String[] { NAME_PREFIX + "%" }, null);
+            assertNotNull(cursor);
+            try {
+                pageSize = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    int quantity = cursor.getInt(1);
+                    if (afterId != -1) {
+                        // Every row follows the last one in (quantity, _id) order
+                        int lastQuantity = Integer.parseInt(afterKey);
+                        assertTrue(quantity > lastQuantity || (quantity == lastQuantity && id > afterId));
+                    }
+                    assertTrue("Item " + id + " seen twice", ids.add(id));
+                    afterKey = String.valueOf(quantity);
+                    afterId = id;
+                }
+            } finally {
+                cursor.close();
+            }
+            pageSizes.add(pageSize);
+        } while (pageSize == 7);
+
+        assertEquals(values.length, ids.size());
+        assertEquals(Arrays.asList(7, 7, 7, 4), pageSizes);
+    }
+
+    @Test
+    public void search_followsUpdatesAndDeletes() {
+        ContentValues values = item("zucchini", 1, 1);
+        values.put(InventoryEntry.COLUMN_ITEM_DESC, "Fresh and green");
+        Uri itemUri = mContentResolver.insert(InventoryEntry.CONTENT_URI, values);
+        assertNotNull(itemUri);
+        long id = ContentUris.parseId(itemUri);
+        assertEquals(Arrays.asList(id), search("zucch"));
+        assertEquals(Arrays.asList(id), search("green"));
+
+        values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, NAME_PREFIX + "courgette");
+        assertEquals(1, mContentResolver.update(itemUri, values, null, null));
+        assertEquals(Arrays.<Long>asList(), search("zucch"));
+        assertEquals(Arrays.asList(id), search("courg"));
+        // The description is still indexed
+        assertEquals(Arrays.asList(id), search("green"));
+
+        // A sale doesn't touch the index
+        moveStock(InventoryContract.METHOD_SELL, itemUri, 1);
+        assertEquals(Arrays.asList(id), search("courg"));
+
+        assertEquals(1, mContentResolver.delete(itemUri, null, null));
+        assertEquals(Arrays.<Long>asList(), search("courg"));
+        assertEquals(Arrays.<Long>asList(), search("green"));
+    }
+
+    @Test
+    public void notificationsWithinTheWindow_areMerged() throws InterruptedException {
+        Uri itemUri = insertItem("burst", 10, 1);
+        startCountingChanges();
+
+        // Taps on the sell button in quick succession
+        for (int i = 0; i < 5; i++) {
+            moveStock(InventoryContract.METHOD_SELL, itemUri, 1);
+        }
+        assertEquals(1, countChanges());
+    }
+
+    @Test
+    public void notificationsOfItems_areCoveredByTheList() throws InterruptedException {
+        Uri firstUri = insertItem("first", 10, 1);
+        Uri secondUri = insertItem("second", 10, 1);
+        startCountingChanges();
+
+        moveStock(InventoryContract.METHOD_SELL, firstUri, 1);
+        moveStock(InventoryContract.METHOD_SELL, secondUri, 1);
+        // The list URI reaches the observers of the items too, so it replaces their URIs
+        insertItem("third", 10, 1);
+        assertEquals(1, countChanges());
+    }
+
+    @Test
+    public void cachedItem_isReadAgainAfterEveryWrite() throws Exception {
+        Uri itemUri = insertItem("cached", 10, 2);
+        String[] projection = { InventoryEntry.COLUMN_ITEM_NAME, InventoryEntry.COLUMN_ITEM_PRICE };
+
+        // The first query reads the row and caches it, the second is served from the cache
+        assertEquals(NAME_PREFIX + "cached:2", queryNameAndPrice(itemUri, projection));
+        long hits = queryCacheStats().getLong(InventoryContract.EXTRA_CACHE_HITS);
+        assertEquals(NAME_PREFIX + "cached:2", queryNameAndPrice(itemUri, projection));
+        assertEquals(hits + 1, queryCacheStats().getLong(InventoryContract.EXTRA_CACHE_HITS));
+
+        // A write to the item itself
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, NAME_PREFIX + "renamed");
+        assertEquals(1, mContentResolver.update(itemUri, values, null, null));
+        assertEquals(NAME_PREFIX + "renamed:2", queryNameAndPrice(itemUri, projection));
+
+        // A write to the list selecting the item
+        values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, 3);
+        assertEquals(1, mContentResolver.update(InventoryEntry.CONTENT_URI, values,
+                SELECTION_TEST_ITEMS, new String[] { NAME_PREFIX + "%" }));
+        assertEquals(NAME_PREFIX + "renamed:3", queryNameAndPrice(itemUri, projection));
+
+        // A batch
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(itemUri)
+                .withValue(InventoryEntry.COLUMN_ITEM_PRICE, 4)
+                .build());
+        applyBatch(operations);
+        assertEquals(NAME_PREFIX + "renamed:4", queryNameAndPrice(itemUri, projection));
+
+        // A sale
+        assertEquals(10, queryQuantity(itemUri));
+        moveStock(InventoryContract.METHOD_SELL, itemUri, 1);
+        assertEquals(9, queryQuantity(itemUri));
+    }
+
+    @Test
+    public void stats_followEveryChange() {
+        long[] before = queryStats();
+
+        Uri firstUri = insertItem("stats first", 3, 10);
+        Uri secondUri = insertItem("stats second", 10, 2);
+        // Items, units, value and items low on stock
+        assertStatsChange(before, 2, 13, 50, 1);
+
+        moveStock(InventoryContract.METHOD_SELL, secondUri, 6);
+        assertStatsChange(before, 2, 7, 38, 2);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 8);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, 1);
+        assertEquals(1, mContentResolver.update(firstUri, values, null, null));
+        assertStatsChange(before, 2, 12, 16, 1);
+
+        assertEquals(1, mContentResolver.delete(firstUri, null, null));
+        assertStatsChange(before, 1, 4, 8, 1);
+        assertEquals(1, mContentResolver.delete(secondUri, null, null));
+        assertStatsChange(before, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void catalogModes_filterAndSortTheItems() {
+        long a = ContentUris.parseId(insertItem("filter a", 0, 30));
+        long b = ContentUris.parseId(insertItem("filter b", 3, 10));
+        long c = ContentUris.parseId(insertItem("filter c", 4, 50));
+        long d = ContentUris.parseId(insertItem("filter d", 20, 20));
+        long e = ContentUris.parseId(insertItem("filter e", 0, 10));
+
+        // Items of the same value are sorted by _id
+        assertEquals(Arrays.asList(a, e, b, c, d), queryCatalog(InventoryEntry.COLUMN_ITEM_QUANTITY, null, -1, -1));
+        assertEquals(Arrays.asList(b, e, a, c),
+                queryCatalog(InventoryEntry.COLUMN_ITEM_PRICE, InventoryEntry.FILTER_LOW_STOCK, -1, -1));
+        assertEquals(Arrays.asList(b, e, a),
+                queryCatalog(InventoryEntry.COLUMN_ITEM_PRICE, InventoryEntry.FILTER_LOW_STOCK, 10, 30));
+        assertEquals(Arrays.asList(d), queryCatalog(InventoryEntry.COLUMN_ITEM_NAME, null, 20, 20));
+        assertEquals(Arrays.asList(a, e),
+                queryCatalog(InventoryEntry.COLUMN_ITEM_NAME, InventoryEntry.FILTER_OUT_OF_STOCK, -1, -1));
+    }
+
+    @Test
+    public void catalogModes_rejectUnknownSortAndFilter() {
+        try {
+            queryCatalog(InventoryEntry.COLUMN_ITEM_DESC, null, -1, -1);
+            fail("Items sorted by an unindexed column");
+        } catch (IllegalArgumentException expected) {
+            // The sort would need a temporary b-tree
+        }
+        try {
+            queryCatalog(null, "expensive", -1, -1);
+            fail("Items filtered by an unknown filter");
+        } catch (IllegalArgumentException expected) {
+            // Only the filters of the contract are known
+        }
+    }
+
+    /**
+     * Start counting the change notifications of the items, once the ones of the earlier
+     * writes have been delivered.
+     */
+    private void startCountingChanges() throws InterruptedException {
+        flushNotifications();
+        Thread.sleep(NOTIFICATION_DELIVERY_MS);
+        mChangeCounter = new ChangeCounter();
+        mContentResolver.registerContentObserver(InventoryEntry.CONTENT_URI, true, mChangeCounter);
+    }
+
+    /**
+     * Deliver the pending notifications right away and return the number of changes counted
+     * since {@link #startCountingChanges}.
+     */
+    private int countChanges() throws InterruptedException {
+        flushNotifications();
+        Thread.sleep(NOTIFICATION_DELIVERY_MS);
+        return mChangeCounter.mChanges.get();
+    }
+
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        return mContentResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+    }
+
+    private void flushNotifications() {
+        mContentResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_FLUSH_NOTIFICATIONS, null, null);
+    }
+
+    private Uri insertItem(String name, int quantity, int price) {
+        Uri itemUri = mContentResolver.insert(InventoryEntry.CONTENT_URI, item(name, quantity, price));
+        assertNotNull(itemUri);
+        return itemUri;
+    }
+
+    private Bundle moveStock(String method, Uri itemUri, int units) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_UNITS, units);
+        Bundle result = mContentResolver.call(InventoryEntry.CONTENT_URI, method, itemUri.toString(), extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * Return the ids of the test items matching the search text.
+     */
+    private List<Long> search(String query) {
+        Cursor cursor = mContentResolver.query(InventoryEntry.buildSearchUri(query),
+                new String[] { InventoryEntry._ID }, SELECTION_TEST_ITEMS,
+                new String[] { NAME_PREFIX + "%" }, null);
+        assertNotNull(cursor);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Return the ids of the test items in the given sort and filter modes of the catalog.
+     */
+    private List<Long> queryCatalog(String sortColumn, String filter, long minPrice, long maxPrice) {
+        Uri catalogUri = InventoryEntry.buildCatalogUri(InventoryEntry.CONTENT_URI, sortColumn, filter,
+                minPrice, maxPrice);
+        Cursor cursor = mContentResolver.query(catalogUri, new String[] { InventoryEntry._ID },
+                SELECTION_TEST_ITEMS, new String[] { NAME_PREFIX + "%" }, null);
+        assertNotNull(cursor);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Return the statistics, in the order of {@link #STATS_PROJECTION}.
+     */
+    private long[] queryStats() {
+        Cursor cursor = mContentResolver.query(StatsEntry.CONTENT_URI, STATS_PROJECTION, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            long[] stats = new long[STATS_PROJECTION.length];
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = cursor.getLong(i);
+            }
+            return stats;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that the statistics changed by the given amounts since they were the given ones.
+     */
+    private void assertStatsChange(long[] before, long skus, long units, long value, long lowStock) {
+        long[] expected = { before[0] + skus, before[1] + units, before[2] + value, before[3] + lowStock };
+        assertArrayEquals(expected, queryStats());
+    }
+
+    private String queryNameAndPrice(Uri itemUri, String[] projection) {
+        Cursor cursor = mContentResolver.query(itemUri, projection, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0) + ":" + cursor.getInt(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle queryCacheStats() {
+        Bundle stats = mContentResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_CACHE_STATS, null, null);
+        assertNotNull(stats);
+        return stats;
+    }
+
+    private int queryQuantity(Uri itemUri) {
+        Cursor cursor = mContentResolver.query(itemUri,
+                new String[] { InventoryEntry.COLUMN_ITEM_QUANTITY }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countTestItems() {
+        Cursor cursor = mContentResolver.query(InventoryEntry.CONTENT_URI,
+                new String[] { InventoryEntry._ID }, SELECTION_TEST_ITEMS,
+                new String[] { NAME_PREFIX + "%" }, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues item(String name, int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, NAME_PREFIX + name);
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, price);
+        return values;
+    }
+
+    /**
+     * Counts the change notifications, which are delivered on a binder thread.
+     */
+    private static class ChangeCounter extends ContentObserver {
+
+        private final AtomicInteger mChanges = new AtomicInteger();
+
+        ChangeCounter() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.storeinventory.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the binary snapshot of the items, with a benchmark of the backup and
+ * the restore of a large inventory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventorySnapshotTest {
+
+    private static final String TAG = InventorySnapshotTest.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    /** Sums over the columns of the items, equal when the tables hold the same rows */
+    private static final String SQL_TABLE_DIGEST = "SELECT count(*) || ':' || total(" + InventoryEntry._ID
+            + ") || ':' || total(" + InventoryEntry.COLUMN_ITEM_QUANTITY
+            + ") || ':' || total(" + InventoryEntry.COLUMN_ITEM_PRICE
+            + ") || ':' || total(length(" + InventoryEntry.COLUMN_ITEM_NAME
+            + ")) || ':' || total(length(" + InventoryEntry.COLUMN_ITEM_DESC
+            + ")) || ':' || count(" + InventoryEntry.COLUMN_ITEM_DESC
+            + ") FROM " + InventoryEntry.TABLE_NAME;
+
+    /** The row of statistics maintained by the triggers */
+    private static final String SQL_STATS_ROW = "SELECT " + StatsEntry.COLUMN_SKU_COUNT
+            + " || ':' || " + StatsEntry.COLUMN_TOTAL_UNITS
+            + " || ':' || " + StatsEntry.COLUMN_TOTAL_VALUE
+            + " || ':' || " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+            + " FROM " + StatsEntry.TABLE_NAME;
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = TestDatabases.open(mContext);
+        mSnapshotFile = new File(mContext.getCacheDir(), "inventory_test.snapshot");
+        TestDatabases.insertItems(mDbHelper.getWritableDatabase(), ROWS);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+        mSnapshotFile.delete();
+    }
+
+    @Test
+    public void snapshot_restoresTheSameItems() throws Exception {
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String digest = DatabaseUtils.stringForQuery(database, SQL_TABLE_DIGEST, null);
+        String stats = DatabaseUtils.stringForQuery(database, SQL_STATS_ROW, null);
+
+        // Read the catalog while the snapshot is written, the reads must not wait for it
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final long[] reads = new long[2];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writing.get()) {
+                    long start = System.nanoTime();
+                    Cursor cursor = database.query(InventoryEntry.TABLE_NAME,
+                            new String[] { InventoryEntry._ID }, InventoryEntry._ID + " = ?",
+                            new String[] { String.valueOf(ROWS / 2) }, null, null, null);
+                    cursor.getCount();
+                    cursor.close();
+                    reads[0]++;
+                    reads[1] = Math.max(reads[1], System.nanoTime() - start);
+                }
+            }
+        });
+        reader.start();
+        long start = System.nanoTime();
+        int written;
+        try {
+            written = InventorySnapshot.write(database, mSnapshotFile);
+        } finally {
+            writing.set(false);
+        }
+        long writeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        reader.join();
+        assertEquals(ROWS, written);
+        Log.i(TAG, "backup: " + ROWS + " rows in " + writeMs + " ms, " + mSnapshotFile.length()
+                + " bytes, " + reads[0] + " reads meanwhile, slowest read "
+                + TimeUnit.NANOSECONDS.toMicros(reads[1]) + " us");
+
+        database.delete(InventoryEntry.TABLE_NAME, null, null);
+        start = System.nanoTime();
+        assertEquals(ROWS, InventorySnapshot.restore(database, mSnapshotFile));
+        long restoreMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.i(TAG, "restore: " + ROWS + " rows in " + restoreMs + " ms");
+
+        assertEquals(digest, DatabaseUtils.stringForQuery(database, SQL_TABLE_DIGEST, null));
+        // The statistics and the search index are kept up to date by the triggers
+        assertEquals(stats, DatabaseUtils.stringForQuery(database, SQL_STATS_ROW, null));
+        // Counting the index itself would read the items table, its own rows are counted instead
+        assertEquals(ROWS, DatabaseUtils.queryNumEntries(database,
+                InventoryDbHelper.TABLE_ITEMS_FTS + "_docsize"));
+    }
+
+    @Test
+    public void damagedSnapshot_leavesTheItems() throws IOException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        InventorySnapshot.write(database, mSnapshotFile);
+        RandomAccessFile file = new RandomAccessFile(mSnapshotFile, "rw");
+        try {
+            long position = file.length() - 1;
+            file.seek(position);
+            int last = file.read();
+            file.seek(position);
+            file.write(last ^ 0xFF);
+        } finally {
+            file.close();
+        }
+
+        database.delete(InventoryEntry.TABLE_NAME, InventoryEntry._ID + " > ?",
+                new String[] { String.valueOf(10) });
+        try {
+            InventorySnapshot.restore(database, mSnapshotFile);
+            fail("Damaged snapshot restored");
+        } catch (IOException e) {
+            // Expected, the checksum doesn't match
+        }
+        assertEquals(10, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the CSV and JSON exports streamed by the provider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemExportTest {
+
+    /** Prefix of the names of the test items, used to find them in the export */
+    private static final String NAME_PREFIX = "Export test ";
+
+    /** Description spanning several lines, which the CSV export writes as a quoted field */
+    private static final String MULTI_LINE_DESC = "Blue,\nsold by the \"box\"\nof 12";
+
+    private Context mContext;
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContentResolver = mContext.getContentResolver();
+        ContentValues[] values = {
+                item(NAME_PREFIX + "apples", "Red, \"sweet\" apples", 10, 3),
+                item(NAME_PREFIX + "pears", null, 0, 5),
+                item(NAME_PREFIX + "plums", MULTI_LINE_DESC, 7, 2) };
+        assertEquals(values.length, mContentResolver.bulkInsert(InventoryEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(InventoryEntry.CONTENT_URI,
+                InventoryEntry.COLUMN_ITEM_NAME + " LIKE ?", new String[] { NAME_PREFIX + "%" });
+    }
+
+    @Test
+    public void streamTypes_areCsvAndJson() {
+        assertEquals(InventoryEntry.EXPORT_TYPE_CSV, mContentResolver.getType(InventoryEntry.EXPORT_URI));
+        assertEquals(Arrays.asList(InventoryEntry.EXPORT_TYPE_CSV, InventoryEntry.EXPORT_TYPE_JSON),
+                Arrays.asList(mContentResolver.getStreamTypes(InventoryEntry.EXPORT_URI, "*/*")));
+        assertArrayEquals(new String[] { InventoryEntry.EXPORT_TYPE_JSON },
+                mContentResolver.getStreamTypes(InventoryEntry.EXPORT_URI, "application/*"));
+        assertNull(mContentResolver.getStreamTypes(InventoryEntry.EXPORT_URI, "image/*"));
+    }
+
+    @Test
+    public void csvExport_canBeImportedAgain() throws IOException {
+        InputStream in = mContentResolver.openInputStream(InventoryEntry.EXPORT_URI);
+        assertNotNull(in);
+        Map<String, String[]> items = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        try {
+            // Read back the way the import reads it, records may span several lines
+            CsvRecordReader records = new CsvRecordReader(reader);
+            String[] fields = new String[4];
+            assertTrue(records.next(fields));
+            assertArrayEquals(new String[] { "name", "description", "quantity", "price" }, fields);
+            while (records.next(fields)) {
+                assertEquals(4, records.getFieldCount());
+                if (fields[0].startsWith(NAME_PREFIX)) {
+                    items.put(fields[0], fields.clone());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(3, items.size());
+        assertArrayEquals(new String[] { NAME_PREFIX + "apples", "Red, \"sweet\" apples", "10", "3" },
+                items.get(NAME_PREFIX + "apples"));
+        assertArrayEquals(new String[] { NAME_PREFIX + "pears", "", "0", "5" },
+                items.get(NAME_PREFIX + "pears"));
+        assertArrayEquals(new String[] { NAME_PREFIX + "plums", MULTI_LINE_DESC, "7", "2" },
+                items.get(NAME_PREFIX + "plums"));
+    }
+
+    @Test
+    public void jsonExport_holdsEveryColumn() throws IOException, JSONException {
+        AssetFileDescriptor descriptor = mContentResolver.openTypedAssetFileDescriptor(
+                InventoryEntry.EXPORT_URI, InventoryEntry.EXPORT_TYPE_JSON, null);
+        assertNotNull(descriptor);
+        StringBuilder json = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                descriptor.createInputStream(), Charset.forName("UTF-8")));
+        try {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+
+        Map<String, JSONObject> items = new HashMap<>();
+        JSONArray array = new JSONArray(json.toString());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            assertTrue(item.has(InventoryEntry._ID));
+            String name = item.getString(InventoryEntry.COLUMN_ITEM_NAME);
+            if (name.startsWith(NAME_PREFIX)) {
+                items.put(name, item);
+            }
+        }
+
+        assertEquals(3, items.size());
+        JSONObject apples = items.get(NAME_PREFIX + "apples");
+        assertEquals("Red, \"sweet\" apples", apples.getString(InventoryEntry.COLUMN_ITEM_DESC));
+        assertEquals(10, apples.getInt(InventoryEntry.COLUMN_ITEM_QUANTITY));
+        assertEquals(3, apples.getInt(InventoryEntry.COLUMN_ITEM_PRICE));
+        assertTrue(items.get(NAME_PREFIX + "pears").isNull(InventoryEntry.COLUMN_ITEM_DESC));
+    }
+
+    @Test
+    public void header_arrivesBeforeTheRows() throws IOException {
+        // The header is flushed before any row is read
+        InputStream in = mContentResolver.openInputStream(InventoryEntry.EXPORT_URI);
+        assertNotNull(in);
+        byte[] header = new byte[4];
+        try {
+            assertEquals(header.length, in.read(header));
+        } finally {
+            in.close();
+        }
+        assertEquals("name", new String(header, Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void closingEarly_stopsTheWriter() throws Exception {
+        final int rows = 20000;
+        InventoryDbHelper dbHelper = TestDatabases.open(mContext);
+        try {
+            TestDatabases.insertItems(dbHelper.getWritableDatabase(), rows);
+            final ItemExportWriter exportWriter = new ItemExportWriter(dbHelper);
+            final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+            final long[] written = new long[1];
+            Thread writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    written[0] = exportWriter.writeItems(pipe[1], false);
+                    try {
+                        pipe[1].close();
+                    } catch (IOException e) {
+                        // Nothing to do, the reader is gone already
+                    }
+                }
+            });
+            writerThread.start();
+
+            // The export is far larger than the pipe, so the writer waits for the reader
+            InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+            byte[] header = new byte[4];
+            try {
+                assertEquals(header.length, in.read(header));
+            } finally {
+                in.close();
+            }
+
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse("Writer still running", writerThread.isAlive());
+            assertTrue("Wrote " + written[0] + " rows", written[0] < rows);
+        } finally {
+            TestDatabases.close(mContext, dbHelper);
+        }
+    }
+
+    private static ContentValues item(String name, String desc, int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, name);
+        values.put(InventoryEntry.COLUMN_ITEM_DESC, desc);
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(InventoryEntry.COLUMN_ITEM_PRICE, price);
+        return values;
+    }
+}
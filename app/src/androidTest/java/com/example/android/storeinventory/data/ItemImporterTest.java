@@ -0,0 +1,220 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the CSV import, with a benchmark of a large supplier catalog.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemImporterTest {
+
+    private static final String TAG = ItemImporterTest.class.getSimpleName();
+
+    /** Prefix of the names of the imported items, used to remove them afterwards */
+    private static final String NAME_PREFIX = "Import test ";
+
+    private static final int ROWS = 100000;
+
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private File mCsvFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContentResolver = mContext.getContentResolver();
+        mCsvFile = new File(mContext.getCacheDir(), "import_test.csv");
+    }
+
+    @After
+    public void tearDown() {
+        mCsvFile.delete();
+        mContentResolver.delete(InventoryEntry.CONTENT_URI,
+                InventoryEntry.COLUMN_ITEM_NAME + " LIKE ?", new String[] { NAME_PREFIX + "%" });
+    }
+
+    @Test
+    public void largeCatalog_isImportedInChunks() throws IOException {
+        writeCatalog(mCsvFile, ROWS);
+
+        ItemImporter.Progress progress = importFile(new ItemImporter.Task());
+        Log.i(TAG, "large catalog: " + progress);
+
+        assertEquals(ROWS + 1, progress.linesRead);
+        assertEquals(ROWS, progress.rowsImported);
+        assertEquals(0, progress.rowsSkipped);
+        assertEquals(mCsvFile.length(), progress.bytesRead);
+        assertEquals(100, progress.getPercent());
+        assertEquals(ROWS, countImportedItems());
+    }
+
+    @Test
+    public void invalidLines_areSkipped() throws IOException {
+        String csv = "name,description,quantity,price\n"
+                + NAME_PREFIX + "apples,\"Red, sweet\",10,3\n"
+                + ",No name,1,1\n"
+                + NAME_PREFIX + "pears,Negative quantity,-1,1\n"
+                + NAME_PREFIX + "plums,Not a number,ten,1\n"
+                + "\"" + NAME_PREFIX + "figs,Unclosed quote,1,1\n"
+                + "\n"
+                + NAME_PREFIX + "kiwis,,,\n";
+        InputStream in = new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8")));
+
+        ItemImporter.Progress progress = ItemImporter.importItems(mContentResolver, in, -1,
+                new ItemImporter.Task());
+
+        assertEquals(2, progress.rowsImported);
+        assertEquals(5, progress.rowsSkipped);
+        assertEquals(-1, progress.getPercent());
+        assertEquals(2, countImportedItems());
+    }
+
+    @Test
+    public void cancelledImport_stopsEarly() throws IOException {
+        writeCatalog(mCsvFile, ROWS);
+        ItemImporter.Task task = new ItemImporter.Task();
+        task.cancel();
+
+        ItemImporter.Progress progress = importFile(task);
+
+        assertTrue(progress.cancelled);
+        assertEquals(0, progress.rowsImported);
+        assertEquals(0, countImportedItems());
+    }
+
+    @Test
+    public void importCancelledMidStream_keepsWholeChunks() throws IOException {
+        writeCatalog(mCsvFile, ROWS);
+        final ItemImporter.Task task = new ItemImporter.Task();
+        final long cancelAfterBytes = mCsvFile.length() / 2;
+        // Cancels the import once half of the file has been read, in the middle of a chunk
+        InputStream in = new FilterInputStream(new FileInputStream(mCsvFile)) {
+            private long mRead;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                mRead += Math.max(read, 0);
+                if (mRead >= cancelAfterBytes) {
+                    task.cancel();
+                }
+                return read;
+            }
+        };
+
+        ItemImporter.Progress progress;
+        try {
+            progress = ItemImporter.importItems(mContentResolver, in, mCsvFile.length(), task);
+        } finally {
+            in.close();
+        }
+
+        assertTrue(progress.cancelled);
+        assertTrue(progress.rowsImported > 0);
+        assertTrue(progress.rowsImported < ROWS);
+        // The chunk being filled when the import was cancelled is dropped as a whole
+        assertEquals(0, progress.rowsImported % ItemImporter.CHUNK_SIZE);
+        assertEquals(progress.rowsImported, countImportedItems());
+    }
+
+    @Test
+    public void failedImport_countsTheCommittedChunks() throws IOException {
+        writeCatalog(mCsvFile, ROWS);
+        final long failAfterBytes = mCsvFile.length() / 2;
+        // Fails like a removed storage once half of the file has been read
+        InputStream in = new FilterInputStream(new FileInputStream(mCsvFile)) {
+            private long mRead;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (mRead >= failAfterBytes) {
+                    throw new IOException("Storage removed");
+                }
+                int read = super.read(buffer, offset, length);
+                mRead += Math.max(read, 0);
+                return read;
+            }
+        };
+
+        ItemImporter.Progress progress;
+        try {
+            progress = ItemImporter.importItems(mContentResolver, in, mCsvFile.length(),
+                    new ItemImporter.Task());
+        } finally {
+            in.close();
+        }
+
+        assertNotNull(progress.error);
+        assertFalse(progress.cancelled);
+        assertTrue(progress.rowsImported > 0);
+        assertTrue(progress.linesRead > progress.rowsImported);
+        assertTrue(progress.bytesRead >= failAfterBytes);
+        // The rows reported are exactly the ones committed before the error
+        assertEquals(0, progress.rowsImported % ItemImporter.CHUNK_SIZE);
+        assertEquals(progress.rowsImported, countImportedItems());
+    }
+
+    private ItemImporter.Progress importFile(ItemImporter.Task task) throws IOException {
+        InputStream in = new FileInputStream(mCsvFile);
+        try {
+            return ItemImporter.importItems(mContentResolver, in, mCsvFile.length(), task);
+        } finally {
+            in.close();
+        }
+    }
+
+    private int countImportedItems() {
+        Cursor cursor = mContentResolver.query(InventoryEntry.CONTENT_URI,
+                new String[] { InventoryEntry._ID },
+                InventoryEntry.COLUMN_ITEM_NAME + " LIKE ?", new String[] { NAME_PREFIX + "%" }, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write a catalog with a header and the given number of items, like a supplier export.
+     */
+    private static void writeCatalog(File file, int rows) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8")));
+        try {
+            writer.write("name,description,quantity,price\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(NAME_PREFIX + i + ",\"Supplier item " + i + ", boxed\"," + (i % 100)
+                        + "," + (i % 50) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the movements of an item, as queried through the provider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemMovementsTest {
+
+    private static final String[] PROJECTION = { MovementEntry.COLUMN_DELTA };
+
+    private ContentResolver mContentResolver;
+    private Uri mItemUri;
+
+    @Before
+    public void setUp() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, "Movements test item");
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 10);
+        mItemUri = mContentResolver.insert(InventoryEntry.CONTENT_URI, values);
+        assertNotNull(mItemUri);
+        moveStock(InventoryContract.METHOD_SELL, 3);
+        moveStock(InventoryContract.METHOD_RECEIVE, 5);
+        moveStock(InventoryContract.METHOD_SELL, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(mItemUri, null, null);
+    }
+
+    @Test
+    public void movements_areMostRecentFirst() {
+        assertEquals(Arrays.asList(-1, 5, -3, 10), queryDeltas(null, null, null));
+    }
+
+    @Test
+    public void selectionAndSortOrder_areApplied() {
+        // Only the sales of the item, oldest first
+        assertEquals(Arrays.asList(-3, -1), queryDeltas(MovementEntry.COLUMN_REASON + " = ?",
+                new String[] { String.valueOf(MovementEntry.REASON_SALE) }, MovementEntry._ID + " ASC"));
+    }
+
+    private void moveStock(String method, int units) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_UNITS, units);
+        Bundle result = mContentResolver.call(InventoryEntry.CONTENT_URI, method, mItemUri.toString(), extras);
+        assertNotNull(result);
+    }
+
+    private List<Integer> queryDeltas(String selection, String[] selectionArgs, String sortOrder) {
+        Uri uri = MovementEntry.buildItemMovementsUri(Long.parseLong(mItemUri.getLastPathSegment()));
+        Cursor cursor = mContentResolver.query(uri, PROJECTION, selection, selectionArgs, sortOrder);
+        assertNotNull(cursor);
+        List<Integer> deltas = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                deltas.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the stock movements ledger and the quantity materialized from it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StockLedgerTest {
+
+    private static final String TAG = StockLedgerTest.class.getSimpleName();
+
+    private Context mContext;
+    private InventoryDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private long mItemId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = TestDatabases.open(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, "Ledger test item");
+        values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, 10);
+        mItemId = mDatabase.insert(InventoryEntry.TABLE_NAME, null, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabases.close(mContext, mDbHelper);
+    }
+
+    @Test
+    public void movements_areAppliedToTheQuantity() {
+        assertEquals(1, countMovements());
+        assertTrue(StockLedger.append(mDatabase, mItemId, -4, MovementEntry.REASON_SALE));
+        assertTrue(StockLedger.append(mDatabase, mItemId, 5, MovementEntry.REASON_RECEIPT));
+        assertEquals(11, readQuantity());
+
+        // A sale never takes the stock below zero
+        assertFalse(StockLedger.append(mDatabase, mItemId, -12, MovementEntry.REASON_SALE));
+        assertEquals(11, readQuantity());
+
+        // An adjustment is the difference to the new quantity, and nothing when it's the same
+        String[] selectionArgs = { String.valueOf(mItemId) };
+        assertEquals(1, StockLedger.adjust(mDatabase, 3, InventoryEntry._ID + "=?", selectionArgs));
+        assertEquals(0, StockLedger.adjust(mDatabase, 3, InventoryEntry._ID + "=?", selectionArgs));
+        assertEquals(3, readQuantity());
+        assertEquals(4, countMovements());
+        assertEquals(3, sumMovements());
+    }
+
+    @Test
+    public void compaction_keepsTheQuantity() {
+        for (int i = 0; i < 100; i++) {
+            if (i % 2 == 0) {
+                StockLedger.append(mDatabase, mItemId, 2, MovementEntry.REASON_RECEIPT);
+            } else {
+                StockLedger.append(mDatabase, mItemId, -1, MovementEntry.REASON_SALE);
+            }
+        }
+        assertEquals(60, readQuantity());
+
+        assertEquals(101, StockLedger.compact(mDatabase, System.currentTimeMillis() + 1));
+        assertEquals(1, countMovements());
+        assertEquals(60, sumMovements());
+        assertEquals(60, readQuantity());
+
+        // Movements after the compaction still add up
+        StockLedger.append(mDatabase, mItemId, -10, MovementEntry.REASON_SALE);
+        assertEquals(50, readQuantity());
+        assertEquals(50, sumMovements());
+
+        // Deleting the item deletes its history
+        mDatabase.delete(InventoryEntry.TABLE_NAME, null, null);
+        assertEquals(0, countMovements());
+    }
+
+    @Test
+    public void compaction_recordsItsTime() {
+        assertEquals(0, StockLedger.getLastCompaction(mDatabase));
+
+        long start = System.currentTimeMillis();
+        StockLedger.compact(mDatabase, start - MovementEntry.RETENTION_MS);
+        long lastCompaction = StockLedger.getLastCompaction(mDatabase);
+        assertTrue(lastCompaction >= start);
+        assertTrue(lastCompaction <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void concurrentSales_areNeverLost() throws InterruptedException {
+        final int threads = 4;
+        final int salesPerThread = 500;
+        String[] selectionArgs = { String.valueOf(mItemId) };
+        StockLedger.adjust(mDatabase, threads * salesPerThread, InventoryEntry._ID + "=?", selectionArgs);
+
+        final AtomicInteger sold = new AtomicInteger();
+        Thread[] sellers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            sellers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < salesPerThread; i++) {
+                        if (StockLedger.append(mDatabase, mItemId, -1, MovementEntry.REASON_SALE)) {
+                            sold.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread seller : sellers) {
+            seller.start();
+        }
+        for (Thread seller : sellers) {
+            seller.join();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.i(TAG, "concurrentSales: " + sold.get() + " sales in " + elapsedMs + " ms");
+
+        assertEquals(threads * salesPerThread, sold.get());
+        assertEquals(0, readQuantity());
+        assertEquals(0, sumMovements());
+    }
+
+    private long readQuantity() {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT " + InventoryEntry.COLUMN_ITEM_QUANTITY
+                + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry._ID + " = ?",
+                new String[] { String.valueOf(mItemId) });
+    }
+
+    private long countMovements() {
+        return DatabaseUtils.queryNumEntries(mDatabase, MovementEntry.TABLE_NAME);
+    }
+
+    private long sumMovements() {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT TOTAL(" + MovementEntry.COLUMN_DELTA
+                + ") FROM " + MovementEntry.TABLE_NAME, null);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.storeinventory.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+/**
+ * The database of the instrumented data tests, separate from the one of the app, and the
+ * items they fill it with. Every test opens a fresh database and deletes it when done.
+ */
+final class TestDatabases {
+
+    /** Name of the database file of the tests */
+    static final String DATABASE_NAME = "inventory_test.db";
+
+    private TestDatabases() {}
+
+    /**
+     * Delete the test database left by an earlier test, if any, and return a helper for a new
+     * one, with write-ahead logging.
+     */
+    static InventoryDbHelper open(Context context) {
+        return open(context, true);
+    }
+
+    /**
+     * Delete the test database left by an earlier test, if any, and return a helper for a new
+     * one.
+     */
+    static InventoryDbHelper open(Context context, boolean writeAheadLoggingEnabled) {
+        context.deleteDatabase(DATABASE_NAME);
+        return new InventoryDbHelper(context, DATABASE_NAME, writeAheadLoggingEnabled);
+    }
+
+    /**
+     * Close the given helper, if any, and delete the test database.
+     */
+    static void close(Context context, InventoryDbHelper dbHelper) {
+        if (null != dbHelper) {
+            dbHelper.close();
+        }
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Insert the given number of items in one transaction. Item i is named "Item i", has i % 100
+     * units at a price of i % 50, and a description with accented letters, except every tenth
+     * item, which has none.
+     */
+    static void insertItems(SQLiteDatabase database, int count) {
+        insertItems(database, count, null);
+    }
+
+    /**
+     * Insert the given number of items in one transaction, like {@link #insertItems(SQLiteDatabase, int)},
+     * all of them with the given description, unless it is null.
+     */
+    static void insertItems(SQLiteDatabase database, int count, String desc) {
+        database.beginTransaction();
+        try {
+            SQLiteStatement insert = database.compileStatement("INSERT INTO " + InventoryEntry.TABLE_NAME
+                    + " (" + InventoryEntry.COLUMN_ITEM_NAME + ", " + InventoryEntry.COLUMN_ITEM_DESC
+                    + ", " + InventoryEntry.COLUMN_ITEM_QUANTITY + ", " + InventoryEntry.COLUMN_ITEM_PRICE
+                    + ") VALUES (?, ?, ?, ?)");
+            try {
+                for (int i = 0; i < count; i++) {
+                    insert.bindString(1, "Item " + i);
+                    if (null != desc) {
+                        insert.bindString(2, desc);
+                    } else if (i % 10 == 0) {
+                        insert.bindNull(2);
+                    } else {
+                        insert.bindString(2, "Description of the item " + i + ", caf\u00e9 cr\u00e8me");
+                    }
+                    insert.bindLong(3, i % 100);
+                    insert.bindLong(4, i % 50);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
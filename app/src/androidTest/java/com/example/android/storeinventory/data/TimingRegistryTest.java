@@ -0,0 +1,100 @@
+package com.example.android.storeinventory.data;
+
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the timing spans, run in the process of the app so the registry
+ * seen here is the one the provider records into.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TimingRegistryTest {
+
+    @Before
+    public void setUp() {
+        TimingRegistry.reset();
+    }
+
+    @Test
+    public void span_isRecordedInHistogram() {
+        for (int i = 0; i < 3; i++) {
+            long start = TimingRegistry.begin("test.span");
+            TimingRegistry.end("test.span", start);
+        }
+
+        TimingRegistry.Stats stats = TimingRegistry.getStats("test.span");
+        assertEquals(3, stats.getCount());
+        assertTrue(stats.getMinNanos() <= stats.getFirstNanos());
+        assertTrue(stats.getFirstNanos() <= stats.getMaxNanos());
+        long bucketed = 0;
+        for (long bucket : stats.getBuckets()) {
+            bucketed += bucket;
+        }
+        assertEquals(3, bucketed);
+        assertNull(TimingRegistry.getStats("test.unknown"));
+    }
+
+    @Test
+    public void concurrentSpans_areAllCounted() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        TimingRegistry.record("test.concurrent", i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        TimingRegistry.Stats stats = TimingRegistry.getStats("test.concurrent");
+        assertEquals(40000, stats.getCount());
+        assertEquals(0, stats.getMinNanos());
+        assertEquals(9999, stats.getMaxNanos());
+        assertEquals(4 * (9999L * 10000 / 2), stats.getTotalNanos());
+    }
+
+    @Test
+    public void providerQuery_isTimed() {
+        Cursor cursor = InstrumentationRegistry.getTargetContext().getContentResolver()
+                .query(StatsEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+
+        TimingRegistry.Stats stats = TimingRegistry.getStats(TimingRegistry.SPAN_PROVIDER_QUERY);
+        assertNotNull(stats);
+        assertEquals(1, stats.getCount());
+        assertTrue(stats.getTotalNanos() > 0);
+    }
+
+    @Test
+    public void dump_printsEverySpan() {
+        TimingRegistry.record(TimingRegistry.SPAN_DB_OPEN, 2000000);
+        TimingRegistry.record(TimingRegistry.SPAN_BIND_ROW, 50000);
+
+        StringWriter output = new StringWriter();
+        TimingRegistry.dump(new PrintWriter(output));
+
+        String dump = output.toString();
+        assertTrue(dump.contains(TimingRegistry.SPAN_DB_OPEN + ": count=1 first=2.000"));
+        assertTrue(dump.contains(TimingRegistry.SPAN_BIND_ROW + ": count=1"));
+        assertTrue(dump.contains("<=0.100: 1"));
+    }
+}
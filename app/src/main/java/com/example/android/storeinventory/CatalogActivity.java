@@ -5,41 +5,132 @@ import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
+import com.example.android.storeinventory.data.ItemImporter;
+import com.example.android.storeinventory.data.TimingRegistry;
 
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
+import java.io.File;
+import java.util.List;
+
+public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<ItemListLoader.LoadedItems>{
 
     private static final String TAG = CatalogActivity.class.getSimpleName();
 
-    ItemCursorAdapter mCursorAdapter;
+    ItemListAdapter mListAdapter;
+
+    private View mEmptyView;
 
     private static final int ITEM_LOADER = 0;
 
+    /** Delay after the last keystroke before the search is run */
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    /** Loader argument with the text typed in the search box */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+
+    private final Handler mSearchHandler = new Handler();
+
+    private String mSearchQuery;
+
+    /** Loader argument and saved state with the column the catalog is sorted by */
+    private static final String ARG_SORT_COLUMN = "sort_column";
+
+    /** Loader argument and saved state with the stock filter of the catalog */
+    private static final String ARG_FILTER = "filter";
+
+    /** Loader argument and saved state with the lowest price shown in the catalog */
+    private static final String ARG_MIN_PRICE = "min_price";
+
+    /** Loader argument and saved state with the highest price shown in the catalog */
+    private static final String ARG_MAX_PRICE = "max_price";
+
+    /** Column the catalog is sorted by, or null for the order the items were added */
+    private String mSortColumn;
+
+    /** Stock filter of the catalog, or null to show every item */
+    private String mFilter;
+
+    /** Price range of the catalog, -1 when the range is open on that side */
+    private long mMinPrice = -1;
+    private long mMaxPrice = -1;
+
+    // Restarts the loader with the latest search text, once the user has stopped typing
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            restartItemLoader();
+        }
+    };
+
+    /** Request code of the file picker used to choose the file to import */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Name of the snapshot file written by the backup, in the files directory of the app */
+    private static final String BACKUP_FILE_NAME = "inventory.snapshot";
+
+    /** Dialog showing the progress of the running import, or null */
+    private AlertDialog mImportDialog;
+
+    // Shows the progress of the running import, which may have been started by a previous
+    // instance of the activity
+    private final ItemImporter.Listener mImportListener = new ItemImporter.Listener() {
+        @Override
+        public void onProgress(ItemImporter.Progress progress) {
+            showImportProgress(progress);
+        }
+
+        @Override
+        public void onFinished(ItemImporter.Progress progress) {
+            showImportFinished(progress);
+        }
+    };
+
     private static Activity instance;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_CATALOG_CREATE);
+        try {
+            super.onCreate(savedInstanceState);
+            createCatalog(savedInstanceState);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_CATALOG_CREATE, start);
+        }
+    }
+
+    private void createCatalog(Bundle savedInstanceState) {
         Log.d(TAG, "onCreate: started");
-        super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (null != savedInstanceState) {
+            mSortColumn = savedInstanceState.getString(ARG_SORT_COLUMN);
+            mFilter = savedInstanceState.getString(ARG_FILTER);
+            mMinPrice = savedInstanceState.getLong(ARG_MIN_PRICE, -1);
+            mMaxPrice = savedInstanceState.getLong(ARG_MAX_PRICE, -1);
+        }
+
         instance = this;
 
         // Setup FAB to open EditorActivity
@@ -52,29 +143,34 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        ListView itemListView = findViewById(R.id.list);
-
-        View emptyView = findViewById(R.id.empty_view);
-        itemListView.setEmptyView(emptyView);
+        RecyclerView itemListView = findViewById(R.id.list);
 
-        //Setup the adapter to create list item for each row of item data in the cursor
-        mCursorAdapter = new ItemCursorAdapter(this, null);
-        itemListView.setAdapter(mCursorAdapter);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        //set on item click listener
-        itemListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Setup the adapter to create list item for each item snapshot, with item click listener
+        mListAdapter = new ItemListAdapter(this, new ItemListAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(ItemSnapshot item) {
                 Intent intent = new Intent(CatalogActivity.this, DetailsActivity.class);
-                Uri currentItemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+                Uri currentItemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, item.getId());
                 Log.d(TAG, "onItemClick: currentItemUri :: "+currentItemUri);
                 intent.setData(currentItemUri);
+                // The details are shown from the row right away, without waiting for a query
+                intent.putExtra(DetailsActivity.EXTRA_ITEM_SNAPSHOT, item);
                 startActivity(intent);
             }
         });
+        itemListView.setLayoutManager(new LinearLayoutManager(this));
+        itemListView.setAdapter(mListAdapter);
 
         //initialize the loader
-        getLoaderManager().initLoader(ITEM_LOADER, null, this);
+        getLoaderManager().initLoader(ITEM_LOADER, buildLoaderArgs(), this);
+
+        // Pick up an import started before a configuration change
+        ItemImporter.Task importTask = ItemImporter.getInstance(this).getCurrentTask();
+        if (null != importTask) {
+            importTask.setListener(mImportListener);
+        }
 
     }
 
@@ -83,9 +179,189 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the items as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current sort and filter modes
+        int sortId;
+        if (InventoryEntry.COLUMN_ITEM_NAME.equals(mSortColumn)) {
+            sortId = R.id.sort_name;
+        } else if (InventoryEntry.COLUMN_ITEM_QUANTITY.equals(mSortColumn)) {
+            sortId = R.id.sort_quantity;
+        } else if (InventoryEntry.COLUMN_ITEM_PRICE.equals(mSortColumn)) {
+            sortId = R.id.sort_price;
+        } else {
+            sortId = R.id.sort_added;
+        }
+        menu.findItem(sortId).setChecked(true);
+
+        int filterId;
+        if (InventoryEntry.FILTER_LOW_STOCK.equals(mFilter)) {
+            filterId = R.id.filter_low_stock;
+        } else if (InventoryEntry.FILTER_OUT_OF_STOCK.equals(mFilter)) {
+            filterId = R.id.filter_out_of_stock;
+        } else if (mMinPrice != -1 || mMaxPrice != -1) {
+            filterId = R.id.filter_price_range;
+        } else {
+            filterId = R.id.filter_all;
+        }
+        menu.findItem(filterId).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(ARG_SORT_COLUMN, mSortColumn);
+        outState.putString(ARG_FILTER, mFilter);
+        outState.putLong(ARG_MIN_PRICE, mMinPrice);
+        outState.putLong(ARG_MAX_PRICE, mMaxPrice);
+    }
+
+    /**
+     * Loader arguments for the current search text and catalog modes.
+     */
+    private Bundle buildLoaderArgs() {
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, mSearchQuery);
+        args.putString(ARG_SORT_COLUMN, mSortColumn);
+        args.putString(ARG_FILTER, mFilter);
+        args.putLong(ARG_MIN_PRICE, mMinPrice);
+        args.putLong(ARG_MAX_PRICE, mMaxPrice);
+        return args;
+    }
+
+    /**
+     * Restart the loader with the current search text and catalog modes. The provider only
+     * reads the matching rows, in order, so the list is never sorted or filtered in memory.
+     */
+    private void restartItemLoader() {
+        getLoaderManager().restartLoader(ITEM_LOADER, buildLoaderArgs(), this);
+    }
+
+    /**
+     * Sort the catalog by the given column, or in the order the items were added if null.
+     */
+    private void setSortColumn(String sortColumn) {
+        if (TextUtils.equals(sortColumn, mSortColumn)) {
+            return;
+        }
+        mSortColumn = sortColumn;
+        restartItemLoader();
+    }
+
+    /**
+     * Show only the items matching the given stock filter and price range.
+     */
+    private void setFilter(String filter, long minPrice, long maxPrice) {
+        if (TextUtils.equals(filter, mFilter) && minPrice == mMinPrice && maxPrice == mMaxPrice) {
+            return;
+        }
+        mFilter = filter;
+        mMinPrice = minPrice;
+        mMaxPrice = maxPrice;
+        restartItemLoader();
+    }
+
+    private void showPriceRangeDialog() {
+        final View dialogView = getLayoutInflater().inflate(R.layout.dialog_price_range, null);
+        final EditText minPriceEditText = dialogView.findViewById(R.id.edit_min_price);
+        final EditText maxPriceEditText = dialogView.findViewById(R.id.edit_max_price);
+        if (mMinPrice != -1) {
+            minPriceEditText.setText(String.valueOf(mMinPrice));
+        }
+        if (mMaxPrice != -1) {
+            maxPriceEditText.setText(String.valueOf(mMaxPrice));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_price_range);
+        builder.setView(dialogView);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                setFilter(null, readPrice(minPriceEditText), readPrice(maxPriceEditText));
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Read the price typed in the given field, or -1 if it is empty or not a number.
+     */
+    private static long readPrice(EditText editText) {
+        String price = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(price)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(price);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "readPrice: invalid price :: " + price);
+            return -1;
+        }
+    }
+
+    /**
+     * Run the search for the given text after the given delay. A new call within the delay
+     * replaces the pending search, so fast typing only runs the last one.
+     */
+    private void search(String query, long delayMs) {
+        if (TextUtils.equals(query, mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.postDelayed(mSearchRunnable, delayMs);
+    }
+
+    @Override
+    protected void onPause() {
+        // Don't keep sales only in memory while the catalog is not in front
+        mListAdapter.flushSales();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        // The import goes on without the activity, a new one picks it up in onCreate
+        ItemImporter.Task importTask = ItemImporter.getInstance(this).getCurrentTask();
+        if (null != importTask) {
+            importTask.setListener(null);
+        }
+        if (null != mImportDialog) {
+            mImportDialog.dismiss();
+            mImportDialog = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -94,10 +370,178 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
                 return true;
+            case R.id.action_import:
+                pickImportFile();
+                return true;
+            case R.id.action_backup:
+                backupItems();
+                return true;
+            case R.id.action_restore:
+                showRestoreConfirmationDialog();
+                return true;
+            case R.id.sort_added:
+                setSortColumn(null);
+                return true;
+            case R.id.sort_name:
+                setSortColumn(InventoryEntry.COLUMN_ITEM_NAME);
+                return true;
+            case R.id.sort_quantity:
+                setSortColumn(InventoryEntry.COLUMN_ITEM_QUANTITY);
+                return true;
+            case R.id.sort_price:
+                setSortColumn(InventoryEntry.COLUMN_ITEM_PRICE);
+                return true;
+            case R.id.filter_all:
+                setFilter(null, -1, -1);
+                return true;
+            case R.id.filter_low_stock:
+                setFilter(InventoryEntry.FILTER_LOW_STOCK, -1, -1);
+                return true;
+            case R.id.filter_out_of_stock:
+                setFilter(InventoryEntry.FILTER_OUT_OF_STOCK, -1, -1);
+                return true;
+            case R.id.filter_price_range:
+                showPriceRangeDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Let the user choose the CSV file to import.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && null != data && null != data.getData()) {
+                Log.d(TAG, "onActivityResult: importing :: " + data.getData());
+                ItemImporter.getInstance(this).start(data.getData(), mImportListener);
+                showImportDialog();
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Open the progress dialog of the running import, if it is not open yet.
+     */
+    private void showImportDialog() {
+        if (null == mImportDialog) {
+            View dialogView = getLayoutInflater().inflate(R.layout.dialog_import_progress, null);
+            AlertDialog.Builder builder = new AlertDialog.Builder(this);
+            builder.setTitle(R.string.import_title);
+            builder.setView(dialogView);
+            builder.setCancelable(false);
+            builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int id) {
+                    // The import stops after the chunk being written and reports as finished
+                    ItemImporter.Task importTask = ItemImporter.getInstance(CatalogActivity.this).getCurrentTask();
+                    if (null != importTask) {
+                        importTask.cancel();
+                    }
+                }
+            });
+            mImportDialog = builder.create();
+            mImportDialog.show();
+        }
+    }
+
+    /**
+     * Show the progress of the running import.
+     */
+    private void showImportProgress(ItemImporter.Progress progress) {
+        showImportDialog();
+        ProgressBar progressBar = mImportDialog.findViewById(R.id.import_progress_bar);
+        TextView progressText = mImportDialog.findViewById(R.id.import_progress_text);
+        int percent = progress.getPercent();
+        progressBar.setIndeterminate(percent == -1);
+        if (percent != -1) {
+            progressBar.setProgress(percent);
+        }
+        progressText.setText(getString(R.string.import_progress, progress.rowsImported));
+    }
+
+    /**
+     * Close the progress dialog and show the result of the import.
+     */
+    private void showImportFinished(ItemImporter.Progress progress) {
+        if (null != mImportDialog) {
+            mImportDialog.dismiss();
+            mImportDialog = null;
+        }
+        String message;
+        if (null != progress.error) {
+            // The chunks committed before the error stay in the database
+            message = getString(R.string.import_failed, progress.rowsImported);
+        } else if (progress.cancelled) {
+            message = getString(R.string.import_cancelled, progress.rowsImported);
+        } else {
+            message = getString(R.string.import_finished, progress.rowsImported, progress.rowsSkipped);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Save a snapshot of all the items in the background and show the result when done.
+     */
+    private void backupItems() {
+        final Context appContext = getApplicationContext();
+        File file = new File(getFilesDir(), BACKUP_FILE_NAME);
+        InventoryWriter.getInstance(this).backup(file, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rows) {
+                Log.d(TAG, "backupItems: rows :: " + rows);
+                String message = rows < 0 ? appContext.getString(R.string.backup_failed)
+                        : appContext.getString(R.string.backup_successful, rows);
+                Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void showRestoreConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_dialog_msg);
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                restoreItems();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Replace all the items with the last backup in the background, the catalog reloads once
+     * the whole snapshot has been loaded.
+     */
+    private void restoreItems() {
+        final Context appContext = getApplicationContext();
+        File file = new File(getFilesDir(), BACKUP_FILE_NAME);
+        InventoryWriter.getInstance(this).restore(file, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rows) {
+                Log.d(TAG, "restoreItems: rows :: " + rows);
+                String message = rows < 0 ? appContext.getString(R.string.restore_failed)
+                        : appContext.getString(R.string.restore_successful, rows);
+                Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private void showDeleteConfirmationDialog() {
         // Create an AlertDialog.Builder and set the message, and click listenersq
         // for the postivie and negative buttons on the dialog.
@@ -126,42 +570,61 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     /**
      * Helper method to delete all the items from the database. For debugging purposes only.
+     * The delete runs in the background and the result is shown when it completes.
      */
     private void deleteAllItems() {
         Log.d(TAG, "deleteAllItems: started");
-        // Delete the item from the provider, returning the number of rows deleted.
-        int noOfRowsDeleted = getContentResolver().delete(InventoryEntry.CONTENT_URI, null, null);
-        Log.d(TAG, "deleteAllItems: noOfRowsDeleted :: "+noOfRowsDeleted);
-        // Show a toast message depending on whether or not the delete was successful
-        if(noOfRowsDeleted < 1){
-            // If the noOfRowsDeleted is less than 1, then there was an error with delete.
-            Toast.makeText(this, getString(R.string.editor_delete_allitems_failed), Toast.LENGTH_SHORT).show();
-        }else{
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_delete_allitems_successful), Toast.LENGTH_SHORT).show();
-        }
+        final Context appContext = getApplicationContext();
+        // Delete the items from the provider, returning the number of rows deleted.
+        InventoryWriter.getInstance(this).delete(InventoryEntry.CONTENT_URI, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer noOfRowsDeleted) {
+                Log.d(TAG, "deleteAllItems: noOfRowsDeleted :: "+noOfRowsDeleted);
+                // Show a toast message depending on whether or not the delete was successful
+                if(noOfRowsDeleted < 1){
+                    // If the noOfRowsDeleted is less than 1, then there was an error with delete.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_allitems_failed), Toast.LENGTH_SHORT).show();
+                }else{
+                    // Otherwise, the delete was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_allitems_successful), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
         Log.d(TAG, "deleteAllItems: ended");
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<ItemListLoader.LoadedItems> onCreateLoader(int i, Bundle bundle) {
         String[] projection = {
                 InventoryEntry._ID,
                 InventoryEntry.COLUMN_ITEM_NAME,
-                InventoryEntry.COLUMN_ITEM_DESC,
-                InventoryEntry.COLUMN_ITEM_QUANTITY
+                InventoryEntry.COLUMN_ITEM_DESC_PREVIEW,
+                InventoryEntry.COLUMN_ITEM_QUANTITY,
+                InventoryEntry.COLUMN_ITEM_PRICE
         };
-        return new CursorLoader(this, InventoryEntry.CONTENT_URI, projection, null, null, null);
+        if (null == bundle) {
+            bundle = buildLoaderArgs();
+        }
+        String query = bundle.getString(ARG_SEARCH_QUERY);
+        // Only the matching items, ranked by the provider
+        Uri uri = TextUtils.isEmpty(query) ? InventoryEntry.CONTENT_URI : InventoryEntry.buildSearchUri(query);
+        // The provider sorts and filters with indexed SQL, so only the rows shown are read
+        uri = InventoryEntry.buildCatalogUri(uri, bundle.getString(ARG_SORT_COLUMN),
+                bundle.getString(ARG_FILTER), bundle.getLong(ARG_MIN_PRICE, -1),
+                bundle.getLong(ARG_MAX_PRICE, -1));
+        return new ItemListLoader(this, uri, projection, null, null, null);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mCursorAdapter.swapCursor(cursor);
+    public void onLoadFinished(Loader<ItemListLoader.LoadedItems> loader, ItemListLoader.LoadedItems loaded) {
+        List<ItemSnapshot> items = null == loaded ? null : loaded.getItems();
+        mListAdapter.setItems(items, null == loaded ? 0 : loaded.getWriteCount());
+        mEmptyView.setVisibility(null == items || items.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ItemListLoader.LoadedItems> loader) {
+        mListAdapter.setItems(null, 0);
     }
 
     public static Context getContext() {
@@ -1,12 +1,9 @@
 package com.example.android.storeinventory;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
@@ -20,12 +17,20 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
 
-public class DetailsActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailsActivity extends AppCompatActivity {
 
     private static final String TAG = DetailsActivity.class.getSimpleName();
 
+    /**
+     * Intent extra with the {@link ItemSnapshot} of the item as the catalog showed it. The
+     * details are shown from it right away, the {@link ItemRepository} only revalidates them
+     * in the background. The catalog only holds a preview of the description, so the
+     * description and the order e-mail wait for the item loaded by the repository.
+     */
+    public static final String EXTRA_ITEM_SNAPSHOT = "item_snapshot";
+
     private TextView mItemName;
     private TextView mItemDesc;
     private TextView mItemQuantity;
@@ -35,7 +40,18 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
 
     private Uri mCurrentItemUri;
 
-    private static final int ITEM_DETAILS_LOADER = 1;
+    /** The item the views currently show, or null before anything is shown */
+    private ItemSnapshot mShownItem;
+
+    // Shows the item loaded by the repository, which is shared with the editor
+    private final ItemRepository.Observer mItemObserver = new ItemRepository.Observer() {
+        @Override
+        public void onItemChanged(long id, ItemSnapshot item) {
+            if (null != item) {
+                showItem(item);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -55,14 +71,17 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
 
         mOrderMoreButton = findViewById(R.id.order_more);
 
+        // Show the row handed over by the catalog in the first frame, before any query
+        ItemSnapshot item = intent.getParcelableExtra(EXTRA_ITEM_SNAPSHOT);
+        if (null != item) {
+            showItem(item);
+        }
+
         if(null != currentItemUri){
             mCurrentItemUri = currentItemUri;
-            getLoaderManager().initLoader(ITEM_DETAILS_LOADER, null, this);
+            ItemRepository.getInstance(this).observe(mCurrentItemUri, mItemObserver);
         }
 
-
-
-
         mOrderMoreButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -85,6 +104,14 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
         Log.d(TAG, "onCreate: ended");
     }
 
+    @Override
+    protected void onDestroy() {
+        if (null != mCurrentItemUri) {
+            ItemRepository.getInstance(this).removeObserver(mCurrentItemUri, mItemObserver);
+        }
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         Log.d(TAG, "onCreateOptionsMenu: started");
@@ -151,72 +178,47 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
 
     /**
      * Perform the deletion of the item in the database.
+     * The delete runs in the background and the result is shown when it completes.
      */
     private void deleteItem() {
         Log.d(TAG, "deleteItem: started");
+        final Context appContext = getApplicationContext();
         // Delete the item from the provider, returning the number of rows deleted.
-        int noOfRowsDeleted = getContentResolver().delete(mCurrentItemUri, null, null);
-        Log.d(TAG, "deleteItem: noOfRowsDeleted :: "+noOfRowsDeleted);
-        // Show a toast message depending on whether or not the delete was successful
-        if(noOfRowsDeleted < 1){
-            // If the noOfRowsDeleted is less than 1, then there was an error with delete.
-            Toast.makeText(this, getString(R.string.editor_delete_item_failed), Toast.LENGTH_SHORT).show();
-        }else{
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_delete_item_successful), Toast.LENGTH_SHORT).show();
-        }
+        InventoryWriter.getInstance(this).delete(mCurrentItemUri, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer noOfRowsDeleted) {
+                Log.d(TAG, "deleteItem: noOfRowsDeleted :: "+noOfRowsDeleted);
+                // Show a toast message depending on whether or not the delete was successful
+                if(noOfRowsDeleted < 1){
+                    // If the noOfRowsDeleted is less than 1, then there was an error with delete.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_item_failed), Toast.LENGTH_SHORT).show();
+                }else{
+                    // Otherwise, the delete was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_item_successful), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
         Log.d(TAG, "deleteItem: ended");
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        Log.d(TAG, "onCreateLoader: started");
-        // Since the editor shows all item attributes, define a projection that contains
-        // all columns from the pet table
-        String[] projection = {
-                InventoryEntry._ID,
-                InventoryEntry.COLUMN_ITEM_NAME,
-                InventoryEntry.COLUMN_ITEM_DESC,
-                InventoryEntry.COLUMN_ITEM_QUANTITY,
-                InventoryEntry.COLUMN_ITEM_PRICE };
-        Log.d(TAG, "onCreateLoader: projection :: "+projection.length);
-        Log.d(TAG, "onCreateLoader: mCurrentItemUri :: "+mCurrentItemUri);
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentItemUri,         // Query the content URI for the current item
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        Log.d(TAG, "onLoadFinished: started");
-        if (cursor.moveToFirst()) {
-            // Find the columns of item attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_NAME);
-            int descColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_DESC);
-            int quantityColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_QUANTITY);
-            int priceColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_PRICE);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String description = cursor.getString(descColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mItemName.setText(name);
-            mItemDesc.setText(description);
-            mItemQuantity.setText(Integer.toString(quantity));
-            mItemPrice.setText(Integer.toString(price));
+    /**
+     * Show the given item. Nothing is touched if the views already show the same values.
+     * A description that is only a preview is not shown, and no order can be sent from it.
+     */
+    private void showItem(ItemSnapshot item) {
+        if (item.equals(mShownItem)) {
+            Log.d(TAG, "showItem: unchanged");
+            return;
         }
-        Log.d(TAG, "onLoadFinished: ended");
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-
+        mShownItem = item;
+        mItemName.setText(item.getName());
+        if (item.isDescPreview()) {
+            mItemDesc.setText(R.string.desc_loading);
+        } else {
+            mItemDesc.setText(item.getDesc());
+        }
+        mOrderMoreButton.setEnabled(!item.isDescPreview());
+        mItemQuantity.setText(Integer.toString(item.getQuantity()));
+        mItemPrice.setText(Integer.toString(item.getPrice()));
     }
 }
@@ -1,30 +1,27 @@
 package com.example.android.storeinventory;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.MotionEvent;
-import android.view.View;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
 
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
+public class EditorActivity extends AppCompatActivity {
 
     private static final String TAG = EditorActivity.class.getSimpleName();
 
@@ -35,9 +32,27 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private Uri mCurrentItemUri;
 
-    private boolean mItemHasChanged = false;
+    /**
+     * The values the fields were filled with. Only the columns the user changed from these
+     * are written, and nothing is written if none changed.
+     */
+    private ItemSnapshot mOriginalItem;
 
-    private static final int ITEM_EDITOR_LOADER = 1;
+    // Fills the fields with the item loaded by the repository, which is shared with the details
+    private final ItemRepository.Observer mItemObserver = new ItemRepository.Observer() {
+        @Override
+        public void onItemChanged(long id, ItemSnapshot item) {
+            if (null == item) {
+                return;
+            }
+            // Don't overwrite what the user has typed, the values it is compared with stay
+            // the ones the fields were filled with
+            if (null == mOriginalItem || !hasUnsavedChanges()) {
+                mOriginalItem = item;
+                showItem(item);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -64,27 +79,57 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }else{
             setTitle(getString(R.string.editor_activity_title_edit_item));
             mCurrentItemUri = currentItemUri;
-            getLoaderManager().initLoader(ITEM_EDITOR_LOADER, null, this);
+            ItemRepository.getInstance(this).observe(mCurrentItemUri, mItemObserver);
         }
 
-        mItemName.setOnTouchListener(mTouchListener);
-        mItemDesc.setOnTouchListener(mTouchListener);
-        mItemQuantity.setOnTouchListener(mTouchListener);
-        mItemPrice.setOnTouchListener(mTouchListener);
-
         Log.d(TAG, "onCreate: ended");
     }
 
-    // OnTouchListener that listens for any user touches on a View, implying that they are modifying
-    // the view, and we change the mItemHasChanged boolean to true.
+    @Override
+    protected void onDestroy() {
+        if (null != mCurrentItemUri) {
+            ItemRepository.getInstance(this).removeObserver(mCurrentItemUri, mItemObserver);
+        }
+        super.onDestroy();
+    }
 
-    private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
-        @Override
-        public boolean onTouch(View view, MotionEvent motionEvent) {
-            mItemHasChanged = true;
+    /**
+     * Return whether the fields hold values that are not saved: any value for a new item,
+     * or values different from the loaded ones for an existing item.
+     */
+    private boolean hasUnsavedChanges() {
+        if (null == mCurrentItemUri) {
+            return !TextUtils.isEmpty(mItemName.getText().toString().trim())
+                    || !TextUtils.isEmpty(mItemDesc.getText().toString().trim())
+                    || !TextUtils.isEmpty(mItemQuantity.getText().toString().trim())
+                    || !TextUtils.isEmpty(mItemPrice.getText().toString().trim());
+        }
+        if (null == mOriginalItem) {
+            // Nothing loaded yet, so nothing could be edited
             return false;
         }
-    };
+        // Compared as text, as parsing numbers out of range would throw on a simple back press
+        return hasChangedText(mOriginalItem, mItemName.getText().toString(),
+                mItemDesc.getText().toString(), mItemQuantity.getText().toString(),
+                mItemPrice.getText().toString());
+    }
+
+    /**
+     * Return whether the text of the fields differs from the original item. Text is compared
+     * trimmed, the way it is saved, and an empty number field equals 0.
+     */
+    @VisibleForTesting
+    static boolean hasChangedText(ItemSnapshot original, String name, String desc, String quantity, String price) {
+        return !name.trim().equals(trim(original.getName()))
+                || !desc.trim().equals(trim(original.getDesc()))
+                || !numberText(quantity).equals(Integer.toString(original.getQuantity()))
+                || !numberText(price).equals(Integer.toString(original.getPrice()));
+    }
+
+    private static String numberText(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? "0" : trimmed;
+    }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -121,7 +166,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             case android.R.id.home:
                 // If the pet hasn't changed, continue with navigating up to parent activity
                 // which is the {@link CatalogActivity}.
-                if (!mItemHasChanged) {
+                if (!hasUnsavedChanges()) {
                     NavUtils.navigateUpFromSameTask(EditorActivity.this);
                     return true;
                 }
@@ -149,7 +194,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public void onBackPressed() {
         // If the item hasn't changed, continue with handling back button press
-        if (!mItemHasChanged) {
+        if (!hasUnsavedChanges()) {
             super.onBackPressed();
             return;
         }
@@ -231,17 +276,28 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             }
         }
 
-        // Insert a new item into the provider, returning the content URI for the new pet.
-        Uri newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
-        Log.d(TAG, "insertItem: newUri :: "+newUri);
-        // Show a toast message depending on whether or not the insertion was successful
-        if(newUri == null){
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_insert_item_failed), Toast.LENGTH_SHORT).show();
-        }else{
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_insert_item_successful), Toast.LENGTH_SHORT).show();
+        if (TextUtils.isEmpty(values.getAsString(InventoryEntry.COLUMN_ITEM_NAME))) {
+            // The provider would reject the item, so tell the user why
+            Toast.makeText(this, getString(R.string.mandatory_name_toast_message), Toast.LENGTH_SHORT).show();
+            return;
         }
+
+        final Context appContext = getApplicationContext();
+        // Insert a new item into the provider in the background, returning the content URI for the new item.
+        InventoryWriter.getInstance(this).insert(InventoryEntry.CONTENT_URI, values, new InventoryWriter.Callback<Uri>() {
+            @Override
+            public void onComplete(Uri newUri) {
+                Log.d(TAG, "insertItem: newUri :: "+newUri);
+                // Show a toast message depending on whether or not the insertion was successful
+                if(newUri == null){
+                    // If the new content URI is null, then there was an error with insertion.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_insert_item_failed), Toast.LENGTH_SHORT).show();
+                }else{
+                    // Otherwise, the insertion was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_insert_item_successful), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
         Log.d(TAG, "insertItem: ended");
     }
 
@@ -252,18 +308,39 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         Log.d(TAG, "updateItem: started");
         ContentValues values = readUserInput();
 
-        // Update the pet into the provider, returning the content URI for the pet.
-        int noOfRowsUpdated = getContentResolver().update(mCurrentItemUri, values, null, null);
-        Log.d(TAG, "updateItem: noOfRowsUpdated :: "+noOfRowsUpdated);
-        // Show a toast message depending on whether or not the update was successful
-        if(noOfRowsUpdated < 1){
-            // If the new content URI is null, then there was an error with update.
-            Toast.makeText(this, getString(R.string.editor_update_item_failed), Toast.LENGTH_SHORT).show();
-        }else{
-            // Otherwise, the update was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_update_item_successful), Toast.LENGTH_SHORT).show();
+        if (TextUtils.isEmpty(values.getAsString(InventoryEntry.COLUMN_ITEM_NAME))) {
+            // The provider would reject the item, so tell the user why
+            Toast.makeText(this, getString(R.string.mandatory_name_toast_message), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Only write the columns the user changed
+        if (null != mOriginalItem) {
+            values = diffValues(mOriginalItem, values);
+        }
+        if (values.size() == 0) {
+            // Nothing changed, so don't rewrite the row and wake up every listener
+            Log.d(TAG, "updateItem: nothing changed, write skipped");
+            return;
         }
 
+        final Context appContext = getApplicationContext();
+        // Update the item into the provider in the background, returning the number of rows updated.
+        InventoryWriter.getInstance(this).update(mCurrentItemUri, values, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer noOfRowsUpdated) {
+                Log.d(TAG, "updateItem: noOfRowsUpdated :: "+noOfRowsUpdated);
+                // Show a toast message depending on whether or not the update was successful
+                if(noOfRowsUpdated < 1){
+                    // If the new content URI is null, then there was an error with update.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_update_item_failed), Toast.LENGTH_SHORT).show();
+                }else{
+                    // Otherwise, the update was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_update_item_successful), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+
         Log.d(TAG, "updateItem: ended");
     }
 
@@ -301,22 +378,57 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         return values;
     }
 
+    /**
+     * Return the values of the user input that differ from the original item. Text is
+     * compared trimmed, the way it is saved, and a missing description equals an empty one.
+     */
+    @VisibleForTesting
+    static ContentValues diffValues(ItemSnapshot original, ContentValues input) {
+        ContentValues changed = new ContentValues();
+        String name = input.getAsString(InventoryEntry.COLUMN_ITEM_NAME);
+        if (null != name && !name.equals(trim(original.getName()))) {
+            changed.put(InventoryEntry.COLUMN_ITEM_NAME, name);
+        }
+        String desc = input.getAsString(InventoryEntry.COLUMN_ITEM_DESC);
+        if (null != desc && !desc.equals(trim(original.getDesc()))) {
+            changed.put(InventoryEntry.COLUMN_ITEM_DESC, desc);
+        }
+        Integer quantity = input.getAsInteger(InventoryEntry.COLUMN_ITEM_QUANTITY);
+        if (null != quantity && quantity != original.getQuantity()) {
+            changed.put(InventoryEntry.COLUMN_ITEM_QUANTITY, quantity);
+        }
+        Integer price = input.getAsInteger(InventoryEntry.COLUMN_ITEM_PRICE);
+        if (null != price && price != original.getPrice()) {
+            changed.put(InventoryEntry.COLUMN_ITEM_PRICE, price);
+        }
+        return changed;
+    }
+
+    private static String trim(String text) {
+        return null == text ? "" : text.trim();
+    }
+
     /**
      * Perform the deletion of the item in the database.
      */
     private void deleteItem() {
         Log.d(TAG, "deleteItem: started");
-        // Delete the item from the provider, returning the number of rows deleted.
-        int noOfRowsDeleted = getContentResolver().delete(mCurrentItemUri, null, null);
-        Log.d(TAG, "deleteItem: noOfRowsDeleted :: "+noOfRowsDeleted);
-        // Show a toast message depending on whether or not the delete was successful
-        if(noOfRowsDeleted < 1){
-            // If the noOfRowsDeleted is less than 1, then there was an error with delete.
-            Toast.makeText(this, getString(R.string.editor_delete_item_failed), Toast.LENGTH_SHORT).show();
-        }else{
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_delete_item_successful), Toast.LENGTH_SHORT).show();
-        }
+        final Context appContext = getApplicationContext();
+        // Delete the item from the provider in the background, returning the number of rows deleted.
+        InventoryWriter.getInstance(this).delete(mCurrentItemUri, new InventoryWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer noOfRowsDeleted) {
+                Log.d(TAG, "deleteItem: noOfRowsDeleted :: "+noOfRowsDeleted);
+                // Show a toast message depending on whether or not the delete was successful
+                if(noOfRowsDeleted < 1){
+                    // If the noOfRowsDeleted is less than 1, then there was an error with delete.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_item_failed), Toast.LENGTH_SHORT).show();
+                }else{
+                    // Otherwise, the delete was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_item_successful), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
         Log.d(TAG, "deleteItem: ended");
     }
 
@@ -332,54 +444,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        Log.d(TAG, "onCreateLoader: started");
-        // Since the editor shows all item attributes, define a projection that contains
-        // all columns from the pet table
-        String[] projection = {
-                InventoryEntry._ID,
-                InventoryEntry.COLUMN_ITEM_NAME,
-                InventoryEntry.COLUMN_ITEM_DESC,
-                InventoryEntry.COLUMN_ITEM_QUANTITY,
-                InventoryEntry.COLUMN_ITEM_PRICE };
-        Log.d(TAG, "onCreateLoader: mCurrentItemUri :: "+mCurrentItemUri);
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentItemUri,         // Query the content URI for the current item
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        Log.d(TAG, "onLoadFinished: started");
-        if (cursor.moveToFirst()) {
-            // Find the columns of item attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_NAME);
-            int descColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_DESC);
-            int quantityColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_QUANTITY);
-            int priceColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_PRICE);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String description = cursor.getString(descColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mItemName.setText(name);
-            mItemDesc.setText(description);
-            mItemQuantity.setText(Integer.toString(quantity));
-            mItemPrice.setText(Integer.toString(price));
-        }
-        Log.d(TAG, "onLoadFinished: ended");
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-
+    /**
+     * Fill the fields with the values of the item.
+     */
+    private void showItem(ItemSnapshot item) {
+        Log.d(TAG, "showItem: started");
+        // Update the views on the screen with the values from the database
+        mItemName.setText(item.getName());
+        mItemDesc.setText(item.getDesc());
+        mItemQuantity.setText(Integer.toString(item.getQuantity()));
+        mItemPrice.setText(Integer.toString(item.getPrice()));
+        Log.d(TAG, "showItem: ended");
     }
 }
@@ -0,0 +1,241 @@
+package com.example.android.storeinventory;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.storeinventory.data.InventoryWriter;
+import com.example.android.storeinventory.data.TimingRegistry;
+
+import java.util.List;
+
+
+/**
+ * {@link ItemListAdapter} is an adapter for a {@link RecyclerView} that uses a list of
+ * {@link ItemSnapshot}s as its data source. When a new list is submitted, the difference with
+ * the current one is computed on a background thread and only the rows that really changed
+ * are rebound.
+ */
+public class ItemListAdapter extends ListAdapter<ItemSnapshot, ItemListAdapter.ItemViewHolder> {
+
+    private static final String TAG = ItemListAdapter.class.getSimpleName();
+    private static final String empty_space = " ";
+
+    /**
+     * Callback for a click on an item row, with the item as shown in the row.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(ItemSnapshot item);
+    }
+
+    private static final DiffUtil.ItemCallback<ItemSnapshot> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ItemSnapshot>() {
+                @Override
+                public boolean areItemsTheSame(ItemSnapshot oldItem, ItemSnapshot newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(ItemSnapshot oldItem, ItemSnapshot newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    private final OnItemClickListener mOnItemClickListener;
+
+    private ItemRowFormatter mRowFormatter;
+
+    private final SaleAccumulator mSaleAccumulator;
+
+    // Shared by all the rows, instead of a new listener for every bind
+    private final View.OnClickListener mRowClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ItemViewHolder holder = (ItemViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            ItemSnapshot item = getItem(position);
+            // Hand over the quantity the row shows, with the sales that are not written yet
+            int pendingUnits = mSaleAccumulator.getPendingUnits(item.getId());
+            if (pendingUnits != 0) {
+                item = item.withQuantity(item.getQuantity() - pendingUnits);
+            }
+            mOnItemClickListener.onItemClick(item);
+        }
+    };
+
+    // implementing onClick for Sale Button, shared by all the rows
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ItemViewHolder holder = (ItemViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            // Decreasing the quantity of the item by 1, written together with the next taps
+            if (mSaleAccumulator.addSale(holder.boundId, getItem(position).getQuantity())) {
+                notifyItemChanged(position);
+            } else {
+                Toast.makeText(view.getContext(), view.getContext().getText(R.string.not_sufficient_sale_item), Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ItemListAdapter}.
+     *
+     * @param context app context
+     * @param onItemClickListener called when an item row is clicked
+     */
+    public ItemListAdapter(Context context, OnItemClickListener onItemClickListener) {
+        super(DIFF_CALLBACK);
+        mOnItemClickListener = onItemClickListener;
+        final Context appContext = context.getApplicationContext();
+        mSaleAccumulator = new SaleAccumulator(InventoryWriter.getInstance(context), new SaleAccumulator.Listener() {
+            @Override
+            public void onPendingUnitsChanged(long id) {
+                notifyItemWithIdChanged(id);
+            }
+
+            @Override
+            public void onSaleRejected(long id) {
+                // The stock changed since the catalog was loaded
+                Toast.makeText(appContext, appContext.getText(R.string.not_sufficient_sale_item), Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onSaleFailed(long id) {
+                Toast.makeText(appContext, appContext.getText(R.string.sale_failed), Toast.LENGTH_SHORT).show();
+            }
+        });
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given items, holding the sales written by the first writeCount writes of the
+     * {@link InventoryWriter}.
+     */
+    public void setItems(List<ItemSnapshot> items, long writeCount) {
+        mSaleAccumulator.onItemsLoaded(writeCount);
+        // The new list is diffed against the current one in the background
+        submitList(items);
+    }
+
+    /**
+     * Write the pending sale taps right away.
+     */
+    public void flushSales() {
+        mSaleAccumulator.flushAll();
+    }
+
+    private void notifyItemWithIdChanged(long id) {
+        for (int position = 0; position < getItemCount(); position++) {
+            if (getItem(position).getId() == id) {
+                notifyItemChanged(position);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     * Everything a row needs for binding is set up here, once per row.
+     */
+    @NonNull
+    @Override
+    public ItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        Context context = parent.getContext();
+        if (null == mRowFormatter) {
+            //Adding the quantity label before the quantity
+            mRowFormatter = new ItemRowFormatter(
+                    context.getString(R.string.quantity_label) + empty_space,
+                    context.getString(R.string.unknown_desc));
+        }
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        ItemViewHolder holder = new ItemViewHolder(view, mRowFormatter.newQuantityBuffer());
+        // The shared listeners find the row through the tag
+        view.setTag(holder);
+        view.setOnClickListener(mRowClickListener);
+        holder.saleButton.setTag(holder);
+        holder.saleButton.setOnClickListener(mSaleClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the item data at the given position to the list item layout.
+     * For example, the name for the current item can be set on the name TextView
+     * in the list item layout. Nothing is allocated here.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
+        bindRow(holder, getItem(position));
+    }
+
+    /**
+     * Bind the item to the row, the whole work of {@link #onBindViewHolder}. The benchmark of
+     * the bind path runs this very method.
+     */
+    @VisibleForTesting
+    void bindRow(ItemViewHolder holder, ItemSnapshot item) {
+        // Timing allocates nothing once the span has been recorded once
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_BIND_ROW);
+        try {
+            bindItem(holder, item);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_BIND_ROW, start);
+        }
+    }
+
+    private void bindItem(ItemViewHolder holder, ItemSnapshot item) {
+        holder.boundId = item.getId();
+        // Update the TextViews with the attributes for the current item
+        holder.nameTextView.setText(item.getName());
+        holder.descTextView.setText(mRowFormatter.descOrDefault(item.getDesc()));
+        // Show the quantity left after the sales that are not written yet
+        int quantity = item.getQuantity() - mSaleAccumulator.getPendingUnits(item.getId());
+        int quantityLength = mRowFormatter.formatQuantity(quantity, holder.quantityChars);
+        holder.quantityTextView.setText(holder.quantityChars, 0, quantityLength);
+    }
+
+    /**
+     * Holds the views of a single list item, so they are only looked up once per row.
+     */
+    static class ItemViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView descTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+        /** Holds the quantity text, reused for every bind of this row */
+        final char[] quantityChars;
+        /** The id of the item currently bound to this row */
+        long boundId;
+
+        ItemViewHolder(View itemView, char[] quantityChars) {
+            super(itemView);
+            this.quantityChars = quantityChars;
+            // Find individual views that we want to modify in the list item layout
+            nameTextView = itemView.findViewById(R.id.item_name);
+            descTextView = itemView.findViewById(R.id.item_desc);
+            quantityTextView = itemView.findViewById(R.id.item_quantity);
+            saleButton = itemView.findViewById(R.id.sale_button);
+        }
+    }
+}
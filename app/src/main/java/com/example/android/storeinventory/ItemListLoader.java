@@ -0,0 +1,126 @@
+package com.example.android.storeinventory;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
+
+import java.util.List;
+
+/**
+ * Loader that queries the provider and turns the rows into {@link ItemSnapshot}s on the
+ * background thread, so the UI thread never walks the cursor. Like a CursorLoader, it loads
+ * again whenever the items change.
+ */
+public class ItemListLoader extends AsyncTaskLoader<ItemListLoader.LoadedItems> {
+
+    /**
+     * The items of a load, with the number of {@link InventoryWriter} writes they include.
+     */
+    public static final class LoadedItems {
+        private final List<ItemSnapshot> mItems;
+        private final long mWriteCount;
+
+        LoadedItems(List<ItemSnapshot> items, long writeCount) {
+            mItems = items;
+            mWriteCount = writeCount;
+        }
+
+        public List<ItemSnapshot> getItems() {
+            return mItems;
+        }
+
+        /**
+         * Return the number of writes completed before the query started, all of which the
+         * items hold. Later writes may or may not be part of them.
+         */
+        public long getWriteCount() {
+            return mWriteCount;
+        }
+    }
+
+    private final ContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+
+    private LoadedItems mItems;
+    private boolean mObserverRegistered;
+
+    public ItemListLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public LoadedItems loadInBackground() {
+        // Read before the query, so every write counted is committed before it starts
+        long writeCount = InventoryWriter.getInstance(getContext()).getCompletedWriteCount();
+        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, mSelection,
+                mSelectionArgs, mSortOrder);
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            return new LoadedItems(ItemSnapshot.readAll(cursor), writeCount);
+        } finally {
+            // Everything is copied into the snapshots, so the cursor is not needed anymore
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(LoadedItems items) {
+        if (isReset()) {
+            return;
+        }
+        mItems = items;
+        if (isStarted()) {
+            super.deliverResult(items);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // All the catalog URIs change together with the items, so observe them all
+            getContext().getContentResolver().registerContentObserver(
+                    InventoryEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (null != mItems) {
+            deliverResult(mItems);
+        }
+        if (takeContentChanged() || null == mItems) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mItems = null;
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.storeinventory;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.example.android.storeinventory.data.InventoryContract;
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared, observable copy of the single items the screens are showing. Every item is queried
+ * once for all its observers: an observer added while the item is being loaded waits for the
+ * same query, and an observer added later gets the loaded item right away. The item is loaded
+ * again when it changes in the provider, and observers are only called when its values really
+ * changed.
+ *
+ * All the methods must be called on the main thread, and observers are called on it too.
+ */
+public final class ItemRepository {
+
+    private static final String TAG = ItemRepository.class.getSimpleName();
+
+    /**
+     * Receives the item on the main thread, once it is loaded and every time it changes.
+     */
+    public interface Observer {
+        /**
+         * @param id of the item
+         * @param item the values of the item, or null if there is no such item
+         */
+        void onItemChanged(long id, ItemSnapshot item);
+    }
+
+    /** All the columns of an item, as shown by the details and the editor */
+    private static final String[] PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC,
+            InventoryEntry.COLUMN_ITEM_QUANTITY,
+            InventoryEntry.COLUMN_ITEM_PRICE };
+
+    /**
+     * State of a single observed item.
+     */
+    private static final class Entry {
+        final long id;
+        final List<Observer> observers = new ArrayList<>();
+        ItemSnapshot item;
+        /** Whether item holds the result of a query */
+        boolean loaded;
+        /** Whether a query for the item is running */
+        boolean loading;
+        /** Whether the item changed while it was being loaded, so it must be loaded again */
+        boolean stale;
+
+        Entry(long id) {
+            this.id = id;
+        }
+    }
+
+    private static ItemRepository sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ItemRepository");
+        }
+    });
+
+    /** The observed items by id, only used on the main thread */
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+
+    // Loads the observed items again when they change in the provider
+    private final ContentObserver mContentObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onItemsChanged(uri);
+        }
+    };
+
+    private boolean mContentObserverRegistered;
+
+    /** Number of queries run, to check that requests for the same item share them */
+    private int mQueryCount;
+
+    private ItemRepository(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the repository shared by the whole app.
+     */
+    public static synchronized ItemRepository getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new ItemRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start observing the item at the given content URI. If the item is already loaded the
+     * observer is called right away, otherwise as soon as the query running for it returns.
+     */
+    public void observe(Uri itemUri, Observer observer) {
+        long id = ContentUris.parseId(itemUri);
+        Entry entry = mEntries.get(id);
+        if (null == entry) {
+            entry = new Entry(id);
+            mEntries.put(id, entry);
+        }
+        entry.observers.add(observer);
+
+        if (!mContentObserverRegistered) {
+            mContentResolver.registerContentObserver(InventoryEntry.CONTENT_URI, true, mContentObserver);
+            mContentObserverRegistered = true;
+        }
+
+        if (entry.loaded) {
+            observer.onItemChanged(id, entry.item);
+        } else {
+            load(entry);
+        }
+    }
+
+    /**
+     * Stop observing the item at the given content URI. The item is forgotten once it has
+     * no observers left.
+     */
+    public void removeObserver(Uri itemUri, Observer observer) {
+        long id = ContentUris.parseId(itemUri);
+        Entry entry = mEntries.get(id);
+        if (null == entry) {
+            return;
+        }
+        entry.observers.remove(observer);
+        if (entry.observers.isEmpty()) {
+            mEntries.remove(id);
+        }
+        if (mEntries.size() == 0 && mContentObserverRegistered) {
+            mContentResolver.unregisterContentObserver(mContentObserver);
+            mContentObserverRegistered = false;
+        }
+    }
+
+    /**
+     * Return the number of queries run so far.
+     */
+    @VisibleForTesting
+    int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Load the item in the background, unless a query for it is already running.
+     */
+    private void load(final Entry entry) {
+        if (entry.loading) {
+            return;
+        }
+        entry.loading = true;
+        entry.stale = false;
+        mQueryCount++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ItemSnapshot item = query(entry.id);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(entry, item);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Query the item, on the background thread.
+     */
+    private ItemSnapshot query(long id) {
+        Uri itemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+        Cursor cursor = mContentResolver.query(itemUri, PROJECTION, null, null, null);
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            List<ItemSnapshot> items = ItemSnapshot.readAll(cursor);
+            return items.isEmpty() ? null : items.get(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void onLoaded(Entry entry, ItemSnapshot item) {
+        entry.loading = false;
+        if (mEntries.get(entry.id) != entry) {
+            // Nobody observes the item anymore
+            return;
+        }
+        boolean changed = !entry.loaded || !(null == item ? null == entry.item : item.equals(entry.item));
+        entry.item = item;
+        entry.loaded = true;
+        if (changed) {
+            // Observers may remove themselves while being called
+            for (Observer observer : new ArrayList<>(entry.observers)) {
+                observer.onItemChanged(entry.id, item);
+            }
+        } else {
+            Log.d(TAG, "onLoaded: item " + entry.id + " unchanged");
+        }
+        if (entry.stale) {
+            load(entry);
+        }
+    }
+
+    /**
+     * Load again the observed items that may have changed. A change of a single item only
+     * loads that item, any other change loads all of them.
+     */
+    private void onItemsChanged(Uri uri) {
+        List<String> segments = null == uri ? null : uri.getPathSegments();
+        if (null != segments && segments.size() == 2
+                && InventoryContract.PATH_ITEMS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1))) {
+            Entry entry = mEntries.get(Long.parseLong(segments.get(1)));
+            if (null != entry) {
+                invalidate(entry);
+            }
+            return;
+        }
+        for (int i = 0; i < mEntries.size(); i++) {
+            invalidate(mEntries.valueAt(i));
+        }
+    }
+
+    private void invalidate(Entry entry) {
+        if (entry.loading) {
+            // The running query may have read the old values
+            entry.stale = true;
+        } else {
+            load(entry);
+        }
+    }
+}
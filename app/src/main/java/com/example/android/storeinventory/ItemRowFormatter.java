@@ -0,0 +1,69 @@
+package com.example.android.storeinventory;
+
+/**
+ * Formats the text of a catalog row without allocating, so binding rows while the list is
+ * flung creates no garbage. The labels are resolved once and the quantity is written into a
+ * char buffer owned by the row, which TextView can display without copying it into a String.
+ */
+final class ItemRowFormatter {
+
+    /** Size of a quantity buffer: the label followed by the longest int, including the sign */
+    private final int mBufferSize;
+
+    private final char[] mQuantityPrefix;
+    private final String mUnknownDesc;
+
+    /**
+     * Constructs a new {@link ItemRowFormatter}.
+     *
+     * @param quantityPrefix text shown before the quantity, including the separating space
+     * @param unknownDesc text shown when the item has no description
+     */
+    ItemRowFormatter(String quantityPrefix, String unknownDesc) {
+        mQuantityPrefix = quantityPrefix.toCharArray();
+        mUnknownDesc = unknownDesc;
+        mBufferSize = mQuantityPrefix.length + 11;
+    }
+
+    /**
+     * Make a buffer for {@link #formatQuantity}. Each row keeps its own buffer, since TextView
+     * holds on to the chars it displays.
+     */
+    char[] newQuantityBuffer() {
+        return new char[mBufferSize];
+    }
+
+    /**
+     * Write the quantity label followed by the quantity into the buffer.
+     *
+     * @return the number of chars written
+     */
+    int formatQuantity(int quantity, char[] buffer) {
+        System.arraycopy(mQuantityPrefix, 0, buffer, 0, mQuantityPrefix.length);
+        int position = mQuantityPrefix.length;
+        long value = quantity;
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        // Count the digits, then write them from the last one backwards
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Return the description, or the default text if the item has no description,
+     * so the TextView isn't blank.
+     */
+    CharSequence descOrDefault(String desc) {
+        return null == desc || desc.isEmpty() ? mUnknownDesc : desc;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.storeinventory;
+
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of the catalog columns of a single item row. Snapshots are compared by value,
+ * so the catalog can find out which rows really changed between two loads. They are parcelable,
+ * so a screen opened from the catalog can show the row right away. A snapshot read from the
+ * catalog only holds the preview of the description, see {@link #isDescPreview}.
+ */
+public final class ItemSnapshot implements Parcelable {
+
+    private final long mId;
+    private final String mName;
+    private final String mDesc;
+    private final int mQuantity;
+    private final int mPrice;
+    private final boolean mDescIsPreview;
+
+    public ItemSnapshot(long id, String name, String desc, int quantity, int price) {
+        this(id, name, desc, quantity, price, false);
+    }
+
+    public ItemSnapshot(long id, String name, String desc, int quantity, int price, boolean descIsPreview) {
+        mId = id;
+        mName = name;
+        mDesc = desc;
+        mQuantity = quantity;
+        mPrice = price;
+        mDescIsPreview = descIsPreview;
+    }
+
+    private ItemSnapshot(Parcel in) {
+        mId = in.readLong();
+        mName = in.readString();
+        mDesc = in.readString();
+        mQuantity = in.readInt();
+        mPrice = in.readInt();
+        mDescIsPreview = in.readInt() != 0;
+    }
+
+    public static final Creator<ItemSnapshot> CREATOR = new Creator<ItemSnapshot>() {
+        @Override
+        public ItemSnapshot createFromParcel(Parcel in) {
+            return new ItemSnapshot(in);
+        }
+
+        @Override
+        public ItemSnapshot[] newArray(int size) {
+            return new ItemSnapshot[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mId);
+        dest.writeString(mName);
+        dest.writeString(mDesc);
+        dest.writeInt(mQuantity);
+        dest.writeInt(mPrice);
+        dest.writeInt(mDescIsPreview ? 1 : 0);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Return a copy of this snapshot with the given quantity.
+     */
+    public ItemSnapshot withQuantity(int quantity) {
+        return new ItemSnapshot(mId, mName, mDesc, quantity, mPrice, mDescIsPreview);
+    }
+
+    /**
+     * Read all the rows of the cursor into snapshots. The column indices are looked up once
+     * for the whole cursor. The description is read from the description preview column
+     * when the cursor has one, and the snapshots are then marked as holding the preview.
+     */
+    public static List<ItemSnapshot> readAll(Cursor cursor) {
+        int idColumnIndex = cursor.getColumnIndex(InventoryEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_NAME);
+        int descColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_DESC_PREVIEW);
+        boolean descIsPreview = descColumnIndex != -1;
+        if (!descIsPreview) {
+            descColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_DESC);
+        }
+        int quantityColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_QUANTITY);
+        int priceColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_PRICE);
+
+        List<ItemSnapshot> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new ItemSnapshot(
+                    cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getString(descColumnIndex),
+                    cursor.getInt(quantityColumnIndex),
+                    cursor.getInt(priceColumnIndex),
+                    descIsPreview));
+        }
+        return items;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getDesc() {
+        return mDesc;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public int getPrice() {
+        return mPrice;
+    }
+
+    /**
+     * Return whether the description is only the first characters of it, as shown by the
+     * catalog, see {@link InventoryEntry#COLUMN_ITEM_DESC_PREVIEW}.
+     */
+    public boolean isDescPreview() {
+        return mDescIsPreview;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ItemSnapshot)) {
+            return false;
+        }
+        ItemSnapshot other = (ItemSnapshot) o;
+        return mId == other.mId
+                && mQuantity == other.mQuantity
+                && mPrice == other.mPrice
+                && mDescIsPreview == other.mDescIsPreview
+                && equal(mName, other.mName)
+                && equal(mDesc, other.mDesc);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (null != mName ? mName.hashCode() : 0);
+        result = 31 * result + (null != mDesc ? mDesc.hashCode() : 0);
+        result = 31 * result + mQuantity;
+        result = 31 * result + mPrice;
+        result = 31 * result + (mDescIsPreview ? 1 : 0);
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
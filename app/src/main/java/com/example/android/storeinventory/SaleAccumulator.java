@@ -0,0 +1,186 @@
+package com.example.android.storeinventory;
+
+import android.content.ContentUris;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.example.android.storeinventory.data.InventoryContract;
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryWriter;
+
+/**
+ * Collects the sale taps on the catalog and writes them behind. Taps on the same item within
+ * {@link #WINDOW_MS} are merged into a single sale of all their units, while the catalog shows
+ * the reduced quantity right away. Must be used on the main thread.
+ */
+class SaleAccumulator {
+
+    private static final String TAG = SaleAccumulator.class.getSimpleName();
+
+    /** How long taps on the same item are collected before they are written */
+    static final long WINDOW_MS = 500;
+
+    /** Number of provider writes saved by merging taps, since the app started */
+    private static long sSavedWriteCount;
+
+    /**
+     * Receives the changes of the pending sales.
+     */
+    interface Listener {
+        /** The number of units to show as sold for the item has changed */
+        void onPendingUnitsChanged(long id);
+
+        /** The provider did not have enough stock left to write the merged sale */
+        void onSaleRejected(long id);
+
+        /** The merged sale could not be written, its units are back in the stock shown */
+        void onSaleFailed(long id);
+    }
+
+    /**
+     * The units sold of a single item that are not yet part of the loaded catalog.
+     */
+    private final class PendingSale implements Runnable {
+        final long id;
+        /** Taps waiting for the window to close */
+        int queuedUnits;
+        /** Units handed to the writer, not yet written */
+        int inFlightUnits;
+        /** Units written, but not yet part of the loaded catalog */
+        int settledUnits;
+        /** Write count of the writer once the last settled units were written */
+        long settledWriteCount;
+
+        PendingSale(long id) {
+            this.id = id;
+        }
+
+        int totalUnits() {
+            return queuedUnits + inFlightUnits + settledUnits;
+        }
+
+        @Override
+        public void run() {
+            flush(this);
+        }
+    }
+
+    private final InventoryWriter mWriter;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+    private final LongSparseArray<PendingSale> mPendingSales = new LongSparseArray<>();
+
+    SaleAccumulator(InventoryWriter writer, Listener listener) {
+        mWriter = writer;
+        mListener = listener;
+    }
+
+    /**
+     * Add one sold unit of the item. The sale is refused if the quantity loaded for the item,
+     * minus the units already pending, would drop below zero.
+     *
+     * @param loadedQuantity quantity of the item in the loaded catalog
+     * @return true if the unit was added
+     */
+    boolean addSale(long id, int loadedQuantity) {
+        PendingSale sale = mPendingSales.get(id);
+        int pendingUnits = null == sale ? 0 : sale.totalUnits();
+        if (loadedQuantity - pendingUnits < 1) {
+            return false;
+        }
+        if (null == sale) {
+            sale = new PendingSale(id);
+            mPendingSales.put(id, sale);
+        }
+        if (sale.queuedUnits == 0) {
+            // The first tap opens the window for this item
+            mHandler.postDelayed(sale, WINDOW_MS);
+        }
+        sale.queuedUnits++;
+        return true;
+    }
+
+    /**
+     * Return the number of units of the item to show as sold on top of the loaded quantity.
+     */
+    int getPendingUnits(long id) {
+        PendingSale sale = mPendingSales.get(id);
+        return null == sale ? 0 : sale.totalUnits();
+    }
+
+    /**
+     * Write all the queued taps right away, for instance when the catalog is paused.
+     */
+    void flushAll() {
+        for (int i = mPendingSales.size() - 1; i >= 0; i--) {
+            PendingSale sale = mPendingSales.valueAt(i);
+            mHandler.removeCallbacks(sale);
+            flush(sale);
+        }
+    }
+
+    /**
+     * Called when a new catalog has been loaded. It holds the units written by the first
+     * writeCount writes of the writer; a catalog whose query started before the last sale of
+     * an item committed still shows the stock from before it, so those units stay pending.
+     * The sale notifies the catalog, so a load holding them always follows.
+     */
+    void onItemsLoaded(long writeCount) {
+        for (int i = mPendingSales.size() - 1; i >= 0; i--) {
+            PendingSale sale = mPendingSales.valueAt(i);
+            if (writeCount >= sale.settledWriteCount) {
+                sale.settledUnits = 0;
+            }
+            if (sale.totalUnits() == 0) {
+                mPendingSales.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Return the number of provider writes saved by merging taps, since the app started.
+     */
+    static long getSavedWriteCount() {
+        return sSavedWriteCount;
+    }
+
+    private void flush(final PendingSale sale) {
+        final int units = sale.queuedUnits;
+        if (units == 0) {
+            return;
+        }
+        sale.queuedUnits = 0;
+        sale.inFlightUnits += units;
+        Log.d(TAG, "flush: selling " + units + " units of item " + sale.id);
+
+        // The provider checks the stock again, so concurrent changes can't make it negative
+        mWriter.sell(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, sale.id), units,
+                new InventoryWriter.Callback<Bundle>() {
+                    @Override
+                    public void onComplete(Bundle result) {
+                        // Written or not, the units are no longer in flight; the ones not
+                        // written simply drop out of the pending units
+                        sale.inFlightUnits -= units;
+                        if (null == result) {
+                            Log.e(TAG, "flush: failed to sell " + units + " units of item " + sale.id);
+                            mListener.onSaleFailed(sale.id);
+                        } else if (result.getBoolean(InventoryContract.EXTRA_SOLD)) {
+                            sale.settledUnits += units;
+                            // This write and all the ones before it have returned
+                            sale.settledWriteCount = mWriter.getCompletedWriteCount();
+                            sSavedWriteCount += units - 1;
+                            Log.d(TAG, "flush: sold " + units + " units of item " + sale.id
+                                    + ", writes saved so far :: " + sSavedWriteCount);
+                        } else {
+                            mListener.onSaleRejected(sale.id);
+                        }
+                        if (sale.totalUnits() == 0 && mPendingSales.get(sale.id) == sale) {
+                            mPendingSales.remove(sale.id);
+                        }
+                        mListener.onPendingUnitsChanged(sale.id);
+                    }
+                });
+    }
+}
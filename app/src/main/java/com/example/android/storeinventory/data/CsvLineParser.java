@@ -0,0 +1,70 @@
+package com.example.android.storeinventory.data;
+
+/**
+ * Splits a single CSV line into its fields. Fields are separated by commas and may be quoted
+ * with double quotes, in which case they can contain commas, doubled quotes and line breaks.
+ * Records spanning several lines are put together by {@link CsvRecordReader}.
+ *
+ * The parser keeps its buffer between lines, so parsing a file allocates little more than the
+ * field strings themselves. It is not thread safe.
+ */
+class CsvLineParser {
+
+    private final StringBuilder mField = new StringBuilder();
+
+    /**
+     * Parse the record into the given array. Fields beyond the size of the array are ignored,
+     * and array entries beyond the last field are set to null.
+     * Return the number of fields in the line, or -1 if a quoted field is not closed.
+     */
+    int parse(String line, String[] fields) {
+        int count = 0;
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            mField.setLength(0);
+            if (i < length && line.charAt(i) == '"') {
+                // Quoted field, up to the closing quote
+                i++;
+                boolean closed = false;
+                while (i < length) {
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        mField.append(c);
+                    } else if (i < length && line.charAt(i) == '"') {
+                        // A doubled quote stands for a single one
+                        mField.append('"');
+                        i++;
+                    } else {
+                        closed = true;
+                        break;
+                    }
+                }
+                if (!closed) {
+                    return -1;
+                }
+                // Anything between the closing quote and the separator is kept as is
+                while (i < length && line.charAt(i) != ',') {
+                    mField.append(line.charAt(i++));
+                }
+            } else {
+                while (i < length && line.charAt(i) != ',') {
+                    mField.append(line.charAt(i++));
+                }
+            }
+            if (count < fields.length) {
+                fields[count] = mField.toString();
+            }
+            count++;
+            if (i >= length) {
+                break;
+            }
+            // Skip the separator
+            i++;
+        }
+        for (int j = count; j < fields.length; j++) {
+            fields[j] = null;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.storeinventory.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the CSV records of a stream one at a time. A record is usually a single line, but a
+ * quoted field may hold line breaks, as in the descriptions written by the export; the lines
+ * are then joined until the quote is closed. A quote still open after
+ * {@link #MAX_RECORD_LINES} lines or at the end of the stream is taken as a mistake: only the
+ * line where it opened is reported as invalid, and the lines after it are read again as
+ * records of their own.
+ *
+ * Line breaks inside a field are read back as a single '\n'. It is not thread safe.
+ */
+class CsvRecordReader {
+
+    /** Largest number of lines a single record may span */
+    static final int MAX_RECORD_LINES = 50;
+
+    private final BufferedReader mReader;
+    private final CsvLineParser mParser = new CsvLineParser();
+
+    /** Lines read ahead while looking for a closing quote, to read again */
+    private final ArrayDeque<String> mLookahead = new ArrayDeque<>();
+
+    private final StringBuilder mRecord = new StringBuilder();
+    private final List<String> mFollowingLines = new ArrayList<>();
+
+    private long mLinesRead;
+    private int mFieldCount;
+    private String mText;
+
+    CsvRecordReader(BufferedReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record into the given array, see {@link CsvLineParser#parse}.
+     * Return false at the end of the stream.
+     */
+    boolean next(String[] fields) throws IOException {
+        String line = nextLine();
+        if (null == line) {
+            return false;
+        }
+        mLinesRead++;
+        mText = line;
+        mFieldCount = mParser.parse(line, fields);
+        if (mFieldCount != -1) {
+            return true;
+        }
+
+        mRecord.setLength(0);
+        mRecord.append(line);
+        mFollowingLines.clear();
+        while (mFieldCount == -1 && mFollowingLines.size() < MAX_RECORD_LINES - 1) {
+            String following = nextLine();
+            if (null == following) {
+                break;
+            }
+            mFollowingLines.add(following);
+            mRecord.append('\n').append(following);
+            mFieldCount = mParser.parse(mRecord.toString(), fields);
+        }
+        if (mFieldCount == -1) {
+            // Never closed, the following lines are records of their own
+            for (int i = mFollowingLines.size() - 1; i >= 0; i--) {
+                mLookahead.addFirst(mFollowingLines.get(i));
+            }
+        } else {
+            mLinesRead += mFollowingLines.size();
+            mText = mRecord.toString();
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of fields of the last record, or -1 if a quoted field is not closed.
+     */
+    int getFieldCount() {
+        return mFieldCount;
+    }
+
+    /**
+     * Return the text of the last record, with its lines joined by '\n'.
+     */
+    String getText() {
+        return mText;
+    }
+
+    /**
+     * Return the number of lines read so far, up to the end of the last record.
+     */
+    long getLinesRead() {
+        return mLinesRead;
+    }
+
+    private String nextLine() throws IOException {
+        return mLookahead.isEmpty() ? mReader.readLine() : mLookahead.pollFirst();
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.storeinventory.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wiping the items table and giving its free pages back to the file system.
+ *
+ * SQLite deletes all the rows of a table at once, by dropping its pages, only when the delete
+ * has no WHERE clause and the table has no delete trigger. The items table has delete triggers
+ * keeping the search index, the statistics and the ledger in sync, which turn a wipe into a
+ * delete of every single row. {@link #truncateItems} removes those for the time of the wipe,
+ * resets what they maintain in bulk and puts them back, all in one transaction; the insert and
+ * update triggers are left alone.
+ *
+ * The pages freed by a delete stay in the file until they are reused. With incremental
+ * auto-vacuum, {@link #reclaimSpace} moves them to the end of the file and truncates it, a
+ * few pages per transaction so the writers never wait long.
+ *
+ * Long reads that must see the table as it was when they started, like a backup or an
+ * export, run in a read transaction opened by {@link #beginReadTransaction}. SQLiteDatabase
+ * only begins write transactions, and runs a raw BEGIN as one too, which would hold back
+ * every sale for the time of the read. The read transaction is a savepoint on a private
+ * read-only connection instead, which SQLite runs as a deferred transaction: with write-ahead
+ * logging it takes no lock that a writer waits for.
+ */
+final class DatabaseMaintenance {
+
+    private static final String TAG = DatabaseMaintenance.class.getSimpleName();
+
+    /** Value of PRAGMA auto_vacuum for the incremental mode */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Number of free pages given back by each step of the incremental vacuum */
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    /** Delete triggers of a table, before or after, with the statements creating them */
+    private static final String SQL_DELETE_TRIGGERS = "SELECT name, sql FROM sqlite_master"
+            + " WHERE type = 'trigger' AND tbl_name = ? AND sql LIKE '% DELETE ON %'";
+
+    /** Name of the savepoint of the read transactions */
+    private static final String SAVEPOINT_READ = "read";
+
+    private DatabaseMaintenance() {}
+
+    /**
+     * Open a private read-only connection to the given database and begin a read transaction
+     * on it. Every query on the returned database sees the same rows until the transaction is
+     * ended by {@link #endReadTransaction}, which also closes the connection.
+     */
+    static SQLiteDatabase beginReadTransaction(SQLiteDatabase database) {
+        SQLiteDatabase reader = SQLiteDatabase.openDatabase(database.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            // Outside of a transaction a savepoint begins a deferred one, and the connection
+            // is the only one of its pool, so every query runs inside it
+            reader.execSQL("SAVEPOINT " + SAVEPOINT_READ);
+        } catch (RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * End the read transaction begun by {@link #beginReadTransaction} and close its connection.
+     */
+    static void endReadTransaction(SQLiteDatabase reader) {
+        try {
+            reader.execSQL("RELEASE " + SAVEPOINT_READ);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Delete all the items in a single transaction, together with their stock movements,
+     * search index and statistics. Return the number of items deleted.
+     */
+    static int truncateItems(SQLiteDatabase database) {
+        Log.d(TAG, "truncateItems: started");
+        int rows;
+        database.beginTransaction();
+        try {
+            rows = (int) DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME);
+
+            // The definitions are read back from the schema, so they are restored exactly as
+            // the migrations left them. All of them are read before anything is dropped
+            List<String> triggerNames = new ArrayList<>();
+            List<String> triggers = new ArrayList<>();
+            Cursor cursor = database.rawQuery(SQL_DELETE_TRIGGERS, new String[] { InventoryEntry.TABLE_NAME });
+            try {
+                while (cursor.moveToNext()) {
+                    String trigger = cursor.getString(1);
+                    if (null == trigger) {
+                        throw new IllegalStateException("No definition for trigger " + cursor.getString(0));
+                    }
+                    triggerNames.add(cursor.getString(0));
+                    triggers.add(trigger);
+                }
+            } finally {
+                cursor.close();
+            }
+            for (String triggerName : triggerNames) {
+                database.execSQL("DROP TRIGGER " + triggerName);
+            }
+
+            // Neither table has a delete trigger now, so both are emptied page by page
+            database.execSQL("DELETE FROM " + MovementEntry.TABLE_NAME);
+            database.execSQL("DELETE FROM " + InventoryEntry.TABLE_NAME);
+            // FTS4 has no command to clear an index; rebuilding it from the items, which are
+            // all gone, empties it without reading a single row back
+            database.execSQL("INSERT INTO " + InventoryDbHelper.TABLE_ITEMS_FTS + "("
+                    + InventoryDbHelper.TABLE_ITEMS_FTS + ") VALUES('rebuild')");
+            database.execSQL("UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                    + StatsEntry.COLUMN_SKU_COUNT + " = 0, "
+                    + StatsEntry.COLUMN_TOTAL_UNITS + " = 0, "
+                    + StatsEntry.COLUMN_TOTAL_VALUE + " = 0, "
+                    + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = 0");
+
+            for (String trigger : triggers) {
+                database.execSQL(trigger);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        Log.d(TAG, "truncateItems: ended :: " + rows + " rows");
+        return rows;
+    }
+
+    /**
+     * Give the free pages of the database back to the file system. New databases use
+     * incremental auto-vacuum from the start, see {@link InventoryDbHelper#onConfigure}; a
+     * database created before is switched to it first, which rebuilds it once with a full
+     * VACUUM, skipped while the disk doesn't have room for a copy of the database.
+     * Return the number of pages given back.
+     */
+    static long reclaimSpace(SQLiteDatabase database) {
+        Log.d(TAG, "reclaimSpace: started");
+        long freePages = pragma(database, "freelist_count");
+        if (pragma(database, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            File file = new File(database.getPath());
+            // VACUUM writes a copy of the database, and the log of that copy in WAL mode
+            if (file.getUsableSpace() < 2 * file.length()) {
+                Log.w(TAG, "reclaimSpace: Not enough space to switch to incremental auto-vacuum");
+                return 0;
+            }
+            // Outside of a transaction only, and only takes effect with the VACUUM following it
+            database.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            database.execSQL("VACUUM");
+        } else {
+            long remaining = freePages;
+            while (remaining > 0) {
+                // Each step is a transaction of its own, writers get in between the steps
+                pragma(database, "incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                long left = pragma(database, "freelist_count");
+                if (left >= remaining) {
+                    break;
+                }
+                remaining = left;
+            }
+        }
+        if (freePages > 0 && database.isWriteAheadLoggingEnabled()) {
+            // The file only shrinks once the vacuumed pages are checkpointed from the log
+            pragma(database, "wal_checkpoint");
+        }
+        long reclaimed = freePages - pragma(database, "freelist_count");
+        Log.d(TAG, "reclaimSpace: ended :: " + reclaimed + " pages reclaimed");
+        return reclaimed;
+    }
+
+    /**
+     * Run the given pragma and return the first column of its first row, or 0 when it has
+     * none. The cursor steps through all the rows when it is first filled, which is when
+     * incremental_vacuum frees its pages, one per row.
+     */
+    private static long pragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
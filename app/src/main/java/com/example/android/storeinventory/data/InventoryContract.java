@@ -17,6 +17,7 @@ package com.example.android.storeinventory.data;
 
 import android.content.ContentResolver;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
 /**
@@ -42,12 +43,122 @@ public final class InventoryContract {
      * as the ContentProvider hasn't been given any information on what to do with "staff".
      */
     public static final String PATH_ITEMS = "items";
+
+    /**
+     * Path appended to the items path for reading the items one page at a time.
+     * For instance, content://com.example.android.storeinventory/items/page?limit=50
+     */
+    public static final String PATH_PAGE = "page";
+
+    /**
+     * Path appended to the items path for a full-text search over the item name and description.
+     * For instance, content://com.example.android.storeinventory/items/search?q=apple
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the items path for the inventory statistics.
+     * For instance, content://com.example.android.storeinventory/items/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the items path for exporting all the items as a file.
+     * For instance, content://com.example.android.storeinventory/items/export
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the URI of a single item for the history of its stock movements.
+     * For instance, content://com.example.android.storeinventory/items/3/movements
+     */
+    public static final String PATH_MOVEMENTS = "movements";
     /**
      * Use CONTENT_AUTHORITY to create the base of all URI's which apps will use to contact
      * the content provider.
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that atomically sells units of a single item. The argument is the content URI of the item
+     * and the number of units is passed in the extras under {@link #EXTRA_UNITS}.
+     * The result holds {@link #EXTRA_SOLD} and {@link #EXTRA_QUANTITY}.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that records the receipt of units of a single item. The argument is the content URI of
+     * the item and the number of units is passed in the extras under {@link #EXTRA_UNITS}.
+     * The result holds {@link #EXTRA_QUANTITY}.
+     */
+    public static final String METHOD_RECEIVE = "receive";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that folds the stock movements older than {@link #EXTRA_BEFORE} into one checkpoint per
+     * item. The provider also runs it in the background as movements are added, and when it
+     * starts if the last compaction is more than a day old. The result holds the number of
+     * movements folded in {@link #EXTRA_ROWS}, or -1 if the compaction failed.
+     */
+    public static final String METHOD_COMPACT_MOVEMENTS = "compact_movements";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that delivers the pending change notifications right away instead of at the end of the
+     * current notification window. Mostly useful for tests.
+     */
+    public static final String METHOD_FLUSH_NOTIFICATIONS = "flush_notifications";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that returns the counters of the single item row cache in {@link #EXTRA_CACHE_HITS}
+     * and {@link #EXTRA_CACHE_MISSES}.
+     */
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that writes a binary snapshot of all the items to the file whose path is the argument.
+     * The result holds the number of items written in {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method, used with {@link ContentResolver#call(Uri, String, String, Bundle)},
+     * that replaces all the items with the ones of the snapshot whose path is the argument.
+     * The result holds the number of items restored in {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /** Number of units to sell. Type: int, defaults to 1 */
+    public static final String EXTRA_UNITS = "units";
+
+    /** Whether the units were sold. Type: boolean */
+    public static final String EXTRA_SOLD = "sold";
+
+    /** Quantity of the item left after the call, or -1 if the item does not exist. Type: int */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /** Number of item queries served from the row cache. Type: long */
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+    /** Number of item queries that had to read the database. Type: long */
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+    /**
+     * Time in milliseconds before which stock movements are folded into checkpoints.
+     * Type: long, defaults to {@link MovementEntry#RETENTION_MS} before now
+     */
+    public static final String EXTRA_BEFORE = "before";
+
+    /**
+     * Number of items in a snapshot, or -1 if it could not be written or read. Number of
+     * stock movements folded by a compaction. Type: int
+     */
+    public static final String EXTRA_ROWS = "rows";
+
 
     /**
      * Inner class that defines constant values for the Items database table.
@@ -61,6 +172,150 @@ public final class InventoryContract {
         /** The content URI to access the item data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ITEMS);
 
+        /**
+         * Query parameter of {@link #CONTENT_URI} for bulk inserts. With the value "false" the
+         * provider doesn't notify the change, so a caller inserting many chunks in a row can
+         * notify {@link #CONTENT_URI} once at the end instead of reloading every list per chunk.
+         */
+        public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * The content URI to read the items one page at a time, using keyset pagination.
+         * Use {@link #buildPageUri} to build the URI of a page.
+         */
+        public static final Uri PAGE_URI = Uri.withAppendedPath(CONTENT_URI, PATH_PAGE);
+
+        /** Query parameter of {@link #PAGE_URI} with the maximum number of rows in the page */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI}, {@link #PAGE_URI} and {@link #SEARCH_URI} with
+         * the column the items are sorted by. One of {@link #_ID}, {@link #COLUMN_ITEM_NAME},
+         * {@link #COLUMN_ITEM_QUANTITY} or {@link #COLUMN_ITEM_PRICE}, all of them indexed.
+         * Rows with the same value are sorted by {@link #_ID}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /** Query parameter of {@link #PAGE_URI} with the sort column value of the last seen row */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /** Query parameter of {@link #PAGE_URI} with the {@link #_ID} of the last seen row */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /** Number of rows in a page when no limit is given */
+        public static final int DEFAULT_PAGE_SIZE = 100;
+
+        /**
+         * Build the URI of the page of items that follows the given row.
+         *
+         * @param sortColumn column the pages are sorted by
+         * @param limit maximum number of rows in the page
+         * @param afterKey sort column value of the last seen row, or null for the first page
+         * @param afterId _ID of the last seen row, or -1 for the first page
+         */
+        public static Uri buildPageUri(String sortColumn, int limit, String afterKey, long afterId) {
+            Uri.Builder builder = PAGE_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterId != -1) {
+                if (null != afterKey) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * The content URI to search the items by name and description.
+         * Use {@link #buildSearchUri} to build the URI of a search.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /** Query parameter of {@link #SEARCH_URI} with the text typed by the user */
+        public static final String QUERY_PARAMETER_QUERY = "q";
+
+        /** Maximum number of rows returned by a search when no limit is given */
+        public static final int DEFAULT_SEARCH_LIMIT = 50;
+
+        /**
+         * Build the URI of a search for the given text. Every word of the text is matched as
+         * the prefix of a word in the item name or description.
+         */
+        public static Uri buildSearchUri(String query) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, query)
+                    .build();
+        }
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} and {@link #SEARCH_URI} restricting the items
+         * by their stock. Either {@link #FILTER_LOW_STOCK} or {@link #FILTER_OUT_OF_STOCK}.
+         */
+        public static final String QUERY_PARAMETER_FILTER = "filter";
+
+        /** Only the items with a quantity below {@link StatsEntry#LOW_STOCK_THRESHOLD} */
+        public static final String FILTER_LOW_STOCK = "low_stock";
+
+        /** Only the items with no units left */
+        public static final String FILTER_OUT_OF_STOCK = "out_of_stock";
+
+        /** Query parameter of {@link #CONTENT_URI} and {@link #SEARCH_URI} with the lowest price */
+        public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+
+        /** Query parameter of {@link #CONTENT_URI} and {@link #SEARCH_URI} with the highest price */
+        public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+
+        /**
+         * Add the sort and filter modes of the catalog to the given list URI, either
+         * {@link #CONTENT_URI} or a search URI. The provider turns them into indexed SQL,
+         * so only the matching rows are read.
+         *
+         * @param uri list URI to add the modes to
+         * @param sortColumn column the items are sorted by, or null for the order they were added
+         * @param filter {@link #FILTER_LOW_STOCK}, {@link #FILTER_OUT_OF_STOCK} or null
+         * @param minPrice lowest price of the items, or -1 for no lower bound
+         * @param maxPrice highest price of the items, or -1 for no upper bound
+         */
+        public static Uri buildCatalogUri(Uri uri, String sortColumn, String filter,
+                                          long minPrice, long maxPrice) {
+            Uri.Builder builder = uri.buildUpon();
+            if (null != sortColumn) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn);
+            }
+            if (null != filter) {
+                builder.appendQueryParameter(QUERY_PARAMETER_FILTER, filter);
+            }
+            if (minPrice != -1) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_PRICE, String.valueOf(minPrice));
+            }
+            if (maxPrice != -1) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_PRICE, String.valueOf(maxPrice));
+            }
+            return builder.build();
+        }
+
+        /**
+         * The content URI to export all the items, read with
+         * {@link ContentResolver#openInputStream} for CSV or with
+         * {@link ContentResolver#openTypedAssetFileDescriptor} for either {@link #EXPORT_TYPE_CSV}
+         * or {@link #EXPORT_TYPE_JSON}. The rows are written into a pipe as the caller reads it,
+         * so the export starts right away and its size doesn't depend on the number of items.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * CSV export of {@link #EXPORT_URI}, with a header line and the name, description,
+         * quantity and price of every item. It can be imported again as is.
+         */
+        public static final String EXPORT_TYPE_CSV = "text/csv";
+
+        /**
+         * JSON export of {@link #EXPORT_URI}, an array with one object per item holding the
+         * {@link #_ID}, name, description, quantity and price columns.
+         */
+        public static final String EXPORT_TYPE_JSON = "application/json";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of items.
          */
@@ -94,6 +349,19 @@ public final class InventoryContract {
          */
         public final static String COLUMN_ITEM_DESC = "desc";
 
+        /**
+         * First {@link #DESC_PREVIEW_LENGTH} characters of the description of the item,
+         * computed by the provider. Only for list queries; it can't be inserted or updated.
+         * Lists should use it instead of {@link #COLUMN_ITEM_DESC}, so long descriptions
+         * don't fill up the cursor window.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_ITEM_DESC_PREVIEW = "desc_preview";
+
+        /** Maximum number of characters in {@link #COLUMN_ITEM_DESC_PREVIEW} */
+        public static final int DESC_PREVIEW_LENGTH = 80;
+
         /**
          * Quantity of the item available.
          *
@@ -110,7 +378,143 @@ public final class InventoryContract {
 
     }
 
+    /**
+     * Inner class that defines constant values for the inventory statistics table.
+     * The table has a single row, kept up to date on every change of the items table,
+     * so reading the statistics does not depend on the number of items.
+     */
+    public static final class StatsEntry implements BaseColumns {
 
+        /** Name of database table for the statistics */
+        public final static String TABLE_NAME = "item_stats";
 
-}
+        /** The content URI to access the statistics in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(InventoryEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the statistics.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_STATS;
+
+        /**
+         * Items with a quantity below this number are counted as low on stock.
+         * It is part of the schema, so changing it requires a database migration.
+         */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Number of items.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SKU_COUNT = "sku_count";
+
+        /**
+         * Sum of the quantity of all the items.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Sum of quantity * price of all the items.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_VALUE = "total_value";
 
+        /**
+         * Number of items with a quantity below {@link #LOW_STOCK_THRESHOLD}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+
+        /**
+         * Time of the last compaction of the stock movements, in milliseconds since the epoch,
+         * or 0 before the first one.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LAST_COMPACTION = "last_compaction";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements table.
+     * Each entry is a change of the quantity of a single item. Movements are only ever
+     * appended; the quantity of an item is the sum of its movements and is kept up to date in
+     * {@link InventoryEntry#COLUMN_ITEM_QUANTITY} as they are added, so reading it stays cheap.
+     * Old movements are regularly folded into a single {@link #REASON_CHECKPOINT} per item.
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        /** Name of database table for the stock movements */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * Build the URI of the movements of the given item, most recent first unless the query
+         * gives its own sort order. A selection of the query narrows down the movements of the
+         * item.
+         */
+        public static Uri buildItemMovementsUri(long itemId) {
+            return InventoryEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(itemId))
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+
+        /**
+         * The MIME type of the movements of an item.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /** How long movements are kept before they are folded into a checkpoint, 30 days */
+        public static final long RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+
+        /**
+         * The quantity the item had at {@link #COLUMN_TIME}: either its quantity when it was
+         * added, or the sum of the movements folded by a compaction.
+         */
+        public static final int REASON_CHECKPOINT = 0;
+
+        /** Units sold */
+        public static final int REASON_SALE = 1;
+
+        /** Units received */
+        public static final int REASON_RECEIPT = 2;
+
+        /** Quantity corrected in the editor */
+        public static final int REASON_ADJUSTMENT = 3;
+
+        /**
+         * {@link InventoryEntry#_ID} of the item.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        /**
+         * Change of the quantity, negative for a sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Reason of the movement, one of the REASON constants.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * Time of the movement, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+    }
+
+}
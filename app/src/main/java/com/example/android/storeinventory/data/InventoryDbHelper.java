@@ -16,11 +16,15 @@
 package com.example.android.storeinventory.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import static com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import static com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import static com.example.android.storeinventory.data.InventoryContract.StatsEntry;
 
 /**
  * Database helper for Inventory app. Manages database creation and version management.
@@ -35,15 +39,280 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 7;
+
+    /** Name of the index on the item name, used by sorted catalog views */
+    static final String INDEX_ITEM_NAME = "items_name_index";
+
+    /** Name of the index on the item quantity, used by low-stock filters */
+    static final String INDEX_ITEM_QUANTITY = "items_quantity_index";
+
+    /** Name of the index on the item price, used by price sorting and price range filters */
+    static final String INDEX_ITEM_PRICE = "items_price_index";
+
+    /** Index for the movements of a single item, in time order */
+    static final String INDEX_MOVEMENT_ITEM = "stock_movements_item_index";
+
+    /** Name of the full-text index over the item name and description */
+    static final String TABLE_ITEMS_FTS = "items_fts";
 
     /**
-     * Constructs a new instance of {@link InventoryDbHelper}.
+     * A single step of the schema, upgrading the database from one version to the next.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /** Short names of the item columns used by the statistics triggers */
+    private static final String QUANTITY = InventoryEntry.COLUMN_ITEM_QUANTITY;
+    private static final String PRICE = InventoryEntry.COLUMN_ITEM_PRICE;
+
+    /** Current time in milliseconds, for the movements written by triggers */
+    private static final String SQL_NOW_MS = "(CAST(strftime('%s', 'now') AS INTEGER) * 1000)";
+
+    /** Trigger statement removing the old version of an item from the full-text index */
+    private static final String SQL_DELETE_OLD_FTS_ROW = "DELETE FROM " + TABLE_ITEMS_FTS
+            + " WHERE docid = old." + InventoryEntry._ID + ";";
+
+    /** Trigger statement adding the new version of an item to the full-text index */
+    private static final String SQL_INSERT_NEW_FTS_ROW = "INSERT INTO " + TABLE_ITEMS_FTS + "(docid, "
+            + InventoryEntry.COLUMN_ITEM_NAME + ", " + InventoryEntry.COLUMN_ITEM_DESC + ") VALUES (new."
+            + InventoryEntry._ID + ", new." + InventoryEntry.COLUMN_ITEM_NAME + ", new."
+            + InventoryEntry.COLUMN_ITEM_DESC + ");";
+
+    /**
+     * All the schema migrations in order. The migration at index i upgrades the database
+     * from version i + 1 to version i + 2. When the schema changes, add a new migration
+     * at the end and increment {@link #DATABASE_VERSION}; never edit an existing one.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 1 -> 2: indexes for sorted catalog views and low-stock filters
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_ITEM_NAME + " ON " + InventoryEntry.TABLE_NAME
+                            + " (" + InventoryEntry.COLUMN_ITEM_NAME + ");");
+                    db.execSQL("CREATE INDEX " + INDEX_ITEM_QUANTITY + " ON " + InventoryEntry.TABLE_NAME
+                            + " (" + InventoryEntry.COLUMN_ITEM_QUANTITY + ");");
+                }
+            },
+            // Version 2 -> 3: full-text index over name and description, kept in sync by triggers
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // The index only stores the terms, the text itself is read from the items table
+                    db.execSQL("CREATE VIRTUAL TABLE " + TABLE_ITEMS_FTS + " USING fts4("
+                            + "content=\"" + InventoryEntry.TABLE_NAME + "\", "
+                            + "prefix=\"2,3\", "
+                            + InventoryEntry.COLUMN_ITEM_NAME + ", "
+                            + InventoryEntry.COLUMN_ITEM_DESC + ");");
+                    // Sales only change the quantity, so the index is only touched when the
+                    // name or the description changes
+                    db.execSQL("CREATE TRIGGER items_fts_before_update BEFORE UPDATE OF "
+                            + InventoryEntry.COLUMN_ITEM_NAME + ", " + InventoryEntry.COLUMN_ITEM_DESC
+                            + " ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                            + SQL_DELETE_OLD_FTS_ROW + " END;");
+                    db.execSQL("CREATE TRIGGER items_fts_before_delete BEFORE DELETE ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN "
+                            + SQL_DELETE_OLD_FTS_ROW + " END;");
+                    db.execSQL("CREATE TRIGGER items_fts_after_update AFTER UPDATE OF "
+                            + InventoryEntry.COLUMN_ITEM_NAME + ", " + InventoryEntry.COLUMN_ITEM_DESC
+                            + " ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                            + SQL_INSERT_NEW_FTS_ROW + " END;");
+                    db.execSQL("CREATE TRIGGER items_fts_after_insert AFTER INSERT ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN "
+                            + SQL_INSERT_NEW_FTS_ROW + " END;");
+                    // Index the items that already exist
+                    db.execSQL("INSERT INTO " + TABLE_ITEMS_FTS + "(" + TABLE_ITEMS_FTS + ") VALUES('rebuild');");
+                }
+            },
+            // Version 3 -> 4: single row of inventory statistics, kept up to date by triggers
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                            + StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = 1), "
+                            + StatsEntry.COLUMN_SKU_COUNT + " INTEGER NOT NULL, "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL, "
+                            + StatsEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL, "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);");
+                    // Aggregate the items that already exist, once
+                    db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT 1, COUNT(*), "
+                            + "IFNULL(SUM(" + QUANTITY + "), 0), "
+                            + "IFNULL(SUM(" + QUANTITY + " * " + PRICE + "), 0), "
+                            + "IFNULL(SUM(" + QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + "), 0) "
+                            + "FROM " + InventoryEntry.TABLE_NAME + ";");
+                    // From now on every change only adds its own difference
+                    db.execSQL("CREATE TRIGGER item_stats_after_insert AFTER INSERT ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_SKU_COUNT + " = " + StatsEntry.COLUMN_SKU_COUNT + " + 1, "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " + new." + QUANTITY + ", "
+                            + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " + new." + QUANTITY + " * new." + PRICE + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " + (new." + QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ");"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER item_stats_after_delete AFTER DELETE ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_SKU_COUNT + " = " + StatsEntry.COLUMN_SKU_COUNT + " - 1, "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " - old." + QUANTITY + ", "
+                            + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " - old." + QUANTITY + " * old." + PRICE + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " - (old." + QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ");"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER item_stats_after_update AFTER UPDATE OF "
+                            + QUANTITY + ", " + PRICE + " ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " + new." + QUANTITY + " - old." + QUANTITY + ", "
+                            + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " + new." + QUANTITY + " * new." + PRICE + " - old." + QUANTITY + " * old." + PRICE + ", "
+                            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " + (new." + QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ")"
+                            + " - (old." + QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ");"
+                            + " END;");
+                }
+            },
+            // Version 4 -> 5: index for the catalog sorted by price and the price range filter
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_ITEM_PRICE + " ON " + InventoryEntry.TABLE_NAME
+                            + " (" + InventoryEntry.COLUMN_ITEM_PRICE + ");");
+                }
+            },
+            // Version 5 -> 6: append-only ledger of stock movements, materialized into the quantity
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                            + MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + MovementEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_REASON + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_TIME + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX " + INDEX_MOVEMENT_ITEM + " ON " + MovementEntry.TABLE_NAME
+                            + " (" + MovementEntry.COLUMN_ITEM_ID + ", " + MovementEntry.COLUMN_TIME + ");");
+                    // The history starts with the current quantity of the items that already exist
+                    db.execSQL("INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                            + MovementEntry.COLUMN_ITEM_ID + ", " + MovementEntry.COLUMN_DELTA + ", "
+                            + MovementEntry.COLUMN_REASON + ", " + MovementEntry.COLUMN_TIME + ") SELECT "
+                            + InventoryEntry._ID + ", " + QUANTITY + ", " + MovementEntry.REASON_CHECKPOINT
+                            + ", " + SQL_NOW_MS + " FROM " + InventoryEntry.TABLE_NAME + ";");
+                    // Every movement adds its change to the quantity of its item, except the
+                    // checkpoints, which only restate changes already applied
+                    db.execSQL("CREATE TRIGGER stock_movements_after_insert AFTER INSERT ON "
+                            + MovementEntry.TABLE_NAME + " WHEN new." + MovementEntry.COLUMN_REASON
+                            + " != " + MovementEntry.REASON_CHECKPOINT + " BEGIN UPDATE "
+                            + InventoryEntry.TABLE_NAME + " SET " + QUANTITY + " = " + QUANTITY
+                            + " + new." + MovementEntry.COLUMN_DELTA + " WHERE " + InventoryEntry._ID
+                            + " = new." + MovementEntry.COLUMN_ITEM_ID + "; END;");
+                    // A new item starts its history with its initial quantity
+                    db.execSQL("CREATE TRIGGER items_movements_after_insert AFTER INSERT ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                            + MovementEntry.COLUMN_ITEM_ID + ", " + MovementEntry.COLUMN_DELTA + ", "
+                            + MovementEntry.COLUMN_REASON + ", " + MovementEntry.COLUMN_TIME + ") VALUES (new."
+                            + InventoryEntry._ID + ", new." + QUANTITY + ", " + MovementEntry.REASON_CHECKPOINT
+                            + ", " + SQL_NOW_MS + "); END;");
+                    db.execSQL("CREATE TRIGGER items_movements_after_delete AFTER DELETE ON "
+                            + InventoryEntry.TABLE_NAME + " BEGIN DELETE FROM " + MovementEntry.TABLE_NAME
+                            + " WHERE " + MovementEntry.COLUMN_ITEM_ID + " = old." + InventoryEntry._ID + "; END;");
+                }
+            },
+            // Version 6 -> 7: time of the last compaction of the ledger, so it isn't run on every start
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + StatsEntry.TABLE_NAME + " ADD COLUMN "
+                            + StatsEntry.COLUMN_LAST_COMPACTION + " INTEGER NOT NULL DEFAULT 0;");
+                }
+            },
+    };
+
+    /** Whether the database is opened with write-ahead logging */
+    private final boolean mWriteAheadLoggingEnabled;
+
+    /** Whether the database has been opened once, after which opening it costs nothing */
+    private volatile boolean mOpened;
+
+    /**
+     * Constructs a new instance of {@link InventoryDbHelper} with write-ahead logging enabled.
      *
      * @param context of the app
      */
     public InventoryDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, true);
+    }
+
+    /**
+     * Constructs a new instance of {@link InventoryDbHelper}.
+     *
+     * @param context of the app
+     * @param writeAheadLoggingEnabled false to opt out of write-ahead logging and use the
+     *                                 default rollback journal
+     */
+    public InventoryDbHelper(Context context, boolean writeAheadLoggingEnabled) {
+        this(context, DATABASE_NAME, writeAheadLoggingEnabled);
+    }
+
+    /**
+     * Constructs a new instance of {@link InventoryDbHelper} for the given database file.
+     *
+     * @param context of the app
+     * @param name of the database file
+     * @param writeAheadLoggingEnabled false to use the default rollback journal
+     */
+    @VisibleForTesting
+    InventoryDbHelper(Context context, String name, boolean writeAheadLoggingEnabled) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLoggingEnabled = writeAheadLoggingEnabled;
+        // With write-ahead logging the framework keeps a pool of read-only connections next to
+        // the primary one, so queries can run while a write transaction is in progress.
+        setWriteAheadLoggingEnabled(writeAheadLoggingEnabled);
+    }
+
+    /**
+     * This is called when the database connection is being configured, before it is created
+     * or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (mWriteAheadLoggingEnabled) {
+            // In WAL mode NORMAL is still safe against corruption and only syncs at checkpoints,
+            // which keeps frequent small writes like sales cheap.
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+        if (db.getVersion() == 0) {
+            // A new database gives the pages freed by deletes back to the file system, see
+            // DatabaseMaintenance.reclaimSpace. The mode only applies before the first table is
+            // written, and opening the connection already wrote android_metadata, so the
+            // still empty file is rebuilt right away, which costs nothing at this size.
+            db.execSQL("PRAGMA auto_vacuum = " + DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL);
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                    != DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL) {
+                db.execSQL("VACUUM");
+            }
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        return mOpened ? super.getWritableDatabase() : open(true);
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        return mOpened ? super.getReadableDatabase() : open(false);
+    }
+
+    /**
+     * Open the database for the first time, timing the open together with the creation or
+     * upgrade of the schema.
+     */
+    private SQLiteDatabase open(boolean writable) {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_DB_OPEN);
+        try {
+            SQLiteDatabase db = writable ? super.getWritableDatabase() : super.getReadableDatabase();
+            mOpened = true;
+            return db;
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_DB_OPEN, start);
+        }
     }
 
     /**
@@ -51,6 +320,15 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_DB_CREATE);
+        try {
+            createSchema(db);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_DB_CREATE, start);
+        }
+    }
+
+    private void createSchema(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the Inventory Item table
         String SQL_CREATE_ITEMS_TABLE =  "CREATE TABLE " + InventoryEntry.TABLE_NAME + " ("
                 + InventoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -61,6 +339,8 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
         Log.d(LOG_TAG, "onCreate: SQL_CREATE_ITEMS_TABLE :: "+SQL_CREATE_ITEMS_TABLE);
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_ITEMS_TABLE);
+        // The statement above is the version 1 schema, bring it up to date
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -68,6 +348,27 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_DB_UPGRADE);
+        try {
+            migrate(db, oldVersion, newVersion);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_DB_UPGRADE, start);
+        }
+    }
+
+    /**
+     * Run the migrations from oldVersion up to newVersion in order. {@link SQLiteOpenHelper}
+     * calls onCreate and onUpgrade inside a transaction, so either all the steps are applied
+     * or none of them is.
+     */
+    @VisibleForTesting
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (newVersion - 1 > MIGRATIONS.length) {
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            Log.d(LOG_TAG, "migrate: upgrading from version " + version + " to " + (version + 1));
+            MIGRATIONS[version - 1].migrate(db);
+        }
     }
 }
\ No newline at end of file
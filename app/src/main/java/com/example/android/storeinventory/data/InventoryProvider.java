@@ -1,17 +1,46 @@
 package com.example.android.storeinventory.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.Toast;
 
 import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -22,9 +51,103 @@ public class InventoryProvider extends ContentProvider {
 
     /** Database helper object */
     private static InventoryDbHelper mDbHelper;
+
+    /** URIs to notify once the batch running on the current thread has committed */
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<>();
+
+    /** How long change notifications are held to merge the ones for the same URI */
+    private static final long NOTIFICATION_WINDOW_MS = 100;
+
+    /** Merges and delivers the change notifications of committed writes */
+    private NotificationCoalescer mNotificationCoalescer;
+
+    /** Maximum number of single item rows kept in memory */
+    private static final int ROW_CACHE_SIZE = 256;
+
+    /** Cache of single item rows, serving the queries on item URIs */
+    private final ItemRowCache mRowCache = new ItemRowCache(ROW_CACHE_SIZE);
+
+    /** MIME types of the export, the first one is used when the caller doesn't ask for one */
+    private static final String[] EXPORT_TYPES = {
+            InventoryEntry.EXPORT_TYPE_CSV,
+            InventoryEntry.EXPORT_TYPE_JSON };
+
+    /** Writes the export into the pipe read by the caller */
+    private ItemExportWriter mExportWriter;
+
+    /** Number of stock movements added between two compactions of the ledger */
+    private static final int COMPACTION_INTERVAL = 1000;
+
+    /** Time after which the ledger is compacted again when the provider starts, one day */
+    private static final long START_COMPACTION_INTERVAL_MS = 24L * 60 * 60 * 1000;
+
+    /** Stock movements added since the last compaction was scheduled */
+    private final AtomicInteger mMovementsSinceCompaction = new AtomicInteger();
+
+    /** Number of rows a delete has to remove for its free pages to be reclaimed right away */
+    private static final int RECLAIM_THRESHOLD = 1000;
+
+    /**
+     * Runs the compactions of the ledger and the reclaiming of free pages, away from the
+     * threads writing to the database
+     */
+    private final ExecutorService mMaintenanceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "InventoryMaintenance");
+        }
+    });
+
+    private final Runnable mCompactionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            compactMovements(System.currentTimeMillis() - MovementEntry.RETENTION_MS);
+        }
+    };
+
+    private final Runnable mStartCompactionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long lastCompaction;
+            try {
+                lastCompaction = StockLedger.getLastCompaction(mDbHelper.getReadableDatabase());
+            } catch (SQLiteException e) {
+                Log.e(TAG, "onCreate: Failed to read the last compaction :: " + e);
+                return;
+            }
+            // A read is all most starts cost, the ledger grows little within a day
+            if (now - lastCompaction >= START_COMPACTION_INTERVAL_MS) {
+                compactMovements(now - MovementEntry.RETENTION_MS);
+            }
+        }
+    };
+
+    private final Runnable mReclaimRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reclaimSpace();
+        }
+    };
+
     @Override
     public boolean onCreate() {
         mDbHelper = new InventoryDbHelper(getContext());
+        mExportWriter = new ItemExportWriter(mDbHelper);
+
+        // Notifications are delivered on their own thread, so they never wait for the UI
+        HandlerThread notificationThread = new HandlerThread("InventoryNotifications");
+        notificationThread.start();
+        mNotificationCoalescer = new NotificationCoalescer(getContext().getContentResolver(),
+                notificationThread.getLooper(), NOTIFICATION_WINDOW_MS);
+
+        // The movement counter starts again with every process, so the ledger is also
+        // compacted at start when the last compaction is a day old, whatever the number of
+        // movements since then
+        mMaintenanceExecutor.execute(mStartCompactionRunnable);
+        // Switches a database from before auto-vacuum to the incremental mode, once, and gives
+        // back the pages left free by the last run
+        mMaintenanceExecutor.execute(mReclaimRunnable);
         return true;
     }
 
@@ -34,6 +157,21 @@ public class InventoryProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single item in the itemss table */
     private static final int ITEM_ID = 101;
 
+    /** URI matcher code for the content URI for a page of items */
+    private static final int ITEMS_PAGE = 102;
+
+    /** URI matcher code for the content URI for a full-text search of items */
+    private static final int ITEMS_SEARCH = 103;
+
+    /** URI matcher code for the content URI for the inventory statistics */
+    private static final int ITEMS_STATS = 104;
+
+    /** URI matcher code for the content URI for the export of all the items */
+    private static final int ITEMS_EXPORT = 105;
+
+    /** URI matcher code for the content URI for the stock movements of a single item */
+    private static final int ITEM_MOVEMENTS = 106;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -41,6 +179,21 @@ public class InventoryProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /** Insert statement used for compiling the bulk insert of items */
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + InventoryEntry.TABLE_NAME + " ("
+            + InventoryEntry.COLUMN_ITEM_NAME + ", "
+            + InventoryEntry.COLUMN_ITEM_DESC + ", "
+            + InventoryEntry.COLUMN_ITEM_QUANTITY + ", "
+            + InventoryEntry.COLUMN_ITEM_PRICE + ") VALUES (?, ?, ?, ?)";
+
+    /** Computes the description preview, only the preview is copied into the cursor window */
+    private static final String SQL_DESC_PREVIEW = "substr(" + InventoryEntry.COLUMN_ITEM_DESC + ", 1, "
+            + InventoryEntry.DESC_PREVIEW_LENGTH + ") AS " + InventoryEntry.COLUMN_ITEM_DESC_PREVIEW;
+
+    /** Reads the quantity of a single item */
+    private static final String SQL_ITEM_QUANTITY = "SELECT " + InventoryEntry.COLUMN_ITEM_QUANTITY
+            + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry._ID + " = ?";
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
@@ -49,21 +202,81 @@ public class InventoryProvider extends ContentProvider {
 
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS, ITEMS);
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/#", ITEM_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/"+InventoryContract.PATH_PAGE, ITEMS_PAGE);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/"+InventoryContract.PATH_SEARCH, ITEMS_SEARCH);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/"+InventoryContract.PATH_STATS, ITEMS_STATS);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/"+InventoryContract.PATH_EXPORT, ITEMS_EXPORT);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS+"/#/"+InventoryContract.PATH_MOVEMENTS, ITEM_MOVEMENTS);
     }
 
     @Override
     public Cursor query(Uri uri, String[] strings, String s, String[] strings1, String s1) {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_PROVIDER_QUERY);
+        try {
+            return queryUri(uri, strings, s, strings1, s1);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_PROVIDER_QUERY, start);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] strings, String s, String[] strings1, String s1) {
+        // Queries run outside of any transaction, so with write-ahead logging they are served by
+        // a read-only connection and are not blocked by a write in progress.
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        // The cache only holds real columns, computed ones are read from the database
+        String[] projection = expandProjection(strings);
         Cursor cursor;
+        Uri notificationUri = uri;
         int match = sUriMatcher.match(uri);
         switch (match){
             case ITEMS:
-                cursor = database.query(InventoryEntry.TABLE_NAME, strings, s, strings1, null, null, s1);
+                cursor = queryCatalog(database, uri, projection, s, strings1, s1);
+                // The catalog modes are query parameters, the items they select are the same
+                notificationUri = InventoryEntry.CONTENT_URI;
                 break;
             case ITEM_ID:
+                if (ItemRowCache.canServe(strings)) {
+                    cursor = queryCachedItem(database, ContentUris.parseId(uri), strings);
+                    break;
+                }
                 s = InventoryEntry._ID + "=?";
                 strings1 = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(InventoryEntry.TABLE_NAME, strings, s, strings1, null, null, s1);
+                cursor = database.query(InventoryEntry.TABLE_NAME, projection, s, strings1, null, null, s1);
+                break;
+            case ITEMS_PAGE:
+                cursor = queryPage(database, uri, projection, s, strings1);
+                // A page changes whenever any of the items changes
+                notificationUri = InventoryEntry.CONTENT_URI;
+                break;
+            case ITEMS_SEARCH:
+                cursor = querySearch(database, uri, projection, s, strings1);
+                // Search results change whenever any of the items changes
+                notificationUri = InventoryEntry.CONTENT_URI;
+                break;
+            case ITEMS_STATS:
+                // A single row maintained by triggers, so this costs the same for any number of items
+                cursor = database.query(StatsEntry.TABLE_NAME, strings, null, null, null, null, null);
+                // The statistics change whenever any of the items changes
+                notificationUri = InventoryEntry.CONTENT_URI;
+                break;
+            case ITEM_MOVEMENTS:
+                // Read through the index on the item and the time
+                long itemId = Long.parseLong(uri.getPathSegments().get(1));
+                String itemSelection = MovementEntry.COLUMN_ITEM_ID + "=?";
+                String[] itemArgs = new String[] { String.valueOf(itemId) };
+                if (TextUtils.isEmpty(s)) {
+                    s = itemSelection;
+                    strings1 = itemArgs;
+                } else {
+                    s = "(" + s + ") AND " + itemSelection;
+                    strings1 = concat(strings1, itemArgs);
+                }
+                if (TextUtils.isEmpty(s1)) {
+                    s1 = MovementEntry.COLUMN_TIME + " DESC, " + MovementEntry._ID + " DESC";
+                }
+                cursor = database.query(MovementEntry.TABLE_NAME, strings, s, strings1, null, null, s1);
+                // Every movement is notified as a change of its item
+                notificationUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI : "+uri);
@@ -72,23 +285,399 @@ public class InventoryProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         // Return the cursor
         return cursor;
     }
+
+    /**
+     * Replace the computed columns of the projection by the SQL that computes them.
+     * Return the projection itself if it has no computed column.
+     */
+    @VisibleForTesting
+    static String[] expandProjection(String[] projection) {
+        if (null == projection) {
+            return null;
+        }
+        String[] expanded = projection;
+        for (int i = 0; i < projection.length; i++) {
+            if (InventoryEntry.COLUMN_ITEM_DESC_PREVIEW.equals(projection[i])) {
+                if (expanded == projection) {
+                    expanded = projection.clone();
+                }
+                expanded[i] = SQL_DESC_PREVIEW;
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Query a single item through the row cache. On a miss the whole row is read from the
+     * database and cached, so that later queries with any projection are served from memory.
+     */
+    private Cursor queryCachedItem(SQLiteDatabase database, long id, String[] projection) {
+        Object[] row = mRowCache.get(id);
+        if (null == row) {
+            long generation = mRowCache.getGeneration();
+            Cursor cursor = database.query(InventoryEntry.TABLE_NAME, ItemRowCache.COLUMNS,
+                    InventoryEntry._ID + "=?", new String[] { String.valueOf(id) },
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    row = ItemRowCache.readRow(cursor);
+                    mRowCache.put(id, row, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return ItemRowCache.toCursor(row, projection);
+    }
+
+    /**
+     * Drop the cached rows that may have been changed by a write to the given URI.
+     * Inserted rows get new ids, so inserts never need to drop anything.
+     */
+    private void invalidateCachedRows(Uri uri) {
+        if (sUriMatcher.match(uri) == ITEM_ID) {
+            mRowCache.invalidate(ContentUris.parseId(uri));
+        } else {
+            mRowCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Query the items with the sort and filter modes of the catalog given as query parameters
+     * of the URI. The modes are turned into parameterized SQL, so only the matching rows are
+     * read, in the order of the index on the sort column.
+     */
+    private Cursor queryCatalog(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        ArrayList<String> filterArgs = new ArrayList<>();
+        String filter = buildCatalogFilter(uri, filterArgs);
+        if (null != filter) {
+            if (TextUtils.isEmpty(selection)) {
+                selection = filter;
+                selectionArgs = filterArgs.toArray(new String[filterArgs.size()]);
+            } else {
+                selection = "(" + selection + ") AND " + filter;
+                selectionArgs = concat(selectionArgs, filterArgs.toArray(new String[filterArgs.size()]));
+            }
+        }
+
+        String sortColumn = readSortColumn(uri);
+        if (null != sortColumn) {
+            sortOrder = buildSortOrder(sortColumn);
+        }
+        return database.query(InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder);
+    }
+
+    /**
+     * Build the selection for the filter and price range query parameters of the URI, adding
+     * its arguments to the given list. Every condition can be answered by the index on the
+     * quantity or the price column. Return null if the URI has no filter.
+     */
+    private static String buildCatalogFilter(Uri uri, ArrayList<String> filterArgs) {
+        ArrayList<String> conditions = new ArrayList<>();
+
+        String filter = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_FILTER);
+        if (InventoryEntry.FILTER_LOW_STOCK.equals(filter)) {
+            // Same definition as the low stock count of the statistics
+            conditions.add(InventoryEntry.COLUMN_ITEM_QUANTITY + " < ?");
+            filterArgs.add(String.valueOf(StatsEntry.LOW_STOCK_THRESHOLD));
+        } else if (InventoryEntry.FILTER_OUT_OF_STOCK.equals(filter)) {
+            conditions.add(InventoryEntry.COLUMN_ITEM_QUANTITY + " = ?");
+            filterArgs.add("0");
+        } else if (!TextUtils.isEmpty(filter)) {
+            throw new IllegalArgumentException("Cannot filter items by " + filter);
+        }
+
+        String minPrice = readPrice(uri, InventoryEntry.QUERY_PARAMETER_MIN_PRICE);
+        if (null != minPrice) {
+            conditions.add(InventoryEntry.COLUMN_ITEM_PRICE + " >= ?");
+            filterArgs.add(minPrice);
+        }
+        String maxPrice = readPrice(uri, InventoryEntry.QUERY_PARAMETER_MAX_PRICE);
+        if (null != maxPrice) {
+            conditions.add(InventoryEntry.COLUMN_ITEM_PRICE + " <= ?");
+            filterArgs.add(maxPrice);
+        }
+
+        return conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions);
+    }
+
+    /**
+     * Read a price query parameter of the URI, making sure it is a number so that it is
+     * compared as one. Return null if the URI doesn't have it.
+     */
+    private static String readPrice(Uri uri, String parameter) {
+        String price = uri.getQueryParameter(parameter);
+        if (TextUtils.isEmpty(price)) {
+            return null;
+        }
+        try {
+            return String.valueOf(Long.parseLong(price));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Items require valid " + parameter + " " + price);
+        }
+    }
+
+    /**
+     * Read the sort column query parameter of the URI. Only indexed columns are accepted, so
+     * the sort never needs a temporary b-tree. Return null if the URI doesn't have one.
+     */
+    private static String readSortColumn(Uri uri) {
+        String sortColumn = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_SORT);
+        if (TextUtils.isEmpty(sortColumn)) {
+            return null;
+        }
+        if (!sortColumn.equals(InventoryEntry._ID)
+                && !sortColumn.equals(InventoryEntry.COLUMN_ITEM_NAME)
+                && !sortColumn.equals(InventoryEntry.COLUMN_ITEM_QUANTITY)
+                && !sortColumn.equals(InventoryEntry.COLUMN_ITEM_PRICE)) {
+            throw new IllegalArgumentException("Cannot sort items by " + sortColumn);
+        }
+        return sortColumn;
+    }
+
+    /**
+     * Sort order for the given column, with the rows of the same value sorted by _id. Every
+     * index also holds the _id of the row, so both orders come straight from the index.
+     */
+    private static String buildSortOrder(String sortColumn) {
+        return sortColumn.equals(InventoryEntry._ID)
+                ? InventoryEntry._ID
+                : sortColumn + ", " + InventoryEntry._ID;
+    }
+
+    /**
+     * Query one page of items with keyset pagination. Instead of skipping rows with OFFSET,
+     * the page starts right after the last seen (sort key, _id) pair, so the index on the sort
+     * column is used to seek to it and every page costs the same however deep it is.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs) {
+        String sortColumn = readSortColumn(uri);
+        if (null == sortColumn) {
+            sortColumn = InventoryEntry._ID;
+        }
+
+        int limit = InventoryEntry.DEFAULT_PAGE_SIZE;
+        String limitString = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_LIMIT);
+        if (!TextUtils.isEmpty(limitString)) {
+            try {
+                limit = Integer.parseInt(limitString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Page requires valid limit " + limitString);
+            }
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Page requires valid limit " + limitString);
+            }
+        }
+
+        // Build the keyset condition for the rows after the last seen one
+        String afterId = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_AFTER_ID);
+        String afterKey = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_AFTER_KEY);
+        String keyset = null;
+        String[] keysetArgs = null;
+        if (null != afterId) {
+            if (sortColumn.equals(InventoryEntry._ID)) {
+                keyset = InventoryEntry._ID + " > ?";
+                keysetArgs = new String[] { afterId };
+            } else {
+                if (null == afterKey) {
+                    throw new IllegalArgumentException("Page sorted by " + sortColumn + " requires after_key");
+                }
+                // Equivalent to (sortColumn, _id) > (afterKey, afterId), written so that the
+                // first term can seek into the index on the sort column
+                keyset = sortColumn + " >= ? AND (" + sortColumn + " > ? OR " + InventoryEntry._ID + " > ?)";
+                keysetArgs = new String[] { afterKey, afterKey, afterId };
+            }
+        }
+
+        if (null != keyset) {
+            if (TextUtils.isEmpty(selection)) {
+                selection = keyset;
+                selectionArgs = keysetArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keyset;
+                selectionArgs = concat(selectionArgs, keysetArgs);
+            }
+        }
+
+        return database.query(InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, buildSortOrder(sortColumn), String.valueOf(limit));
+    }
+
+    /**
+     * Query the items matching the search text through the full-text index. Items whose name
+     * starts with the search text are ranked first, then the results are sorted by name, unless
+     * a sort column is given. The filters of the catalog apply to the results as well.
+     */
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs) {
+        String query = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_QUERY);
+        String matchQuery = buildMatchQuery(query);
+        if (null == matchQuery) {
+            // Nothing to search for, so there are no matches
+            return new MatrixCursor(null != projection ? projection : new String[] { InventoryEntry._ID });
+        }
+
+        int limit = InventoryEntry.DEFAULT_SEARCH_LIMIT;
+        String limitString = uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_LIMIT);
+        if (!TextUtils.isEmpty(limitString)) {
+            try {
+                limit = Integer.parseInt(limitString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Search requires valid limit " + limitString);
+            }
+        }
+
+        ArrayList<String> matchArgs = new ArrayList<>();
+        String match = InventoryEntry._ID + " IN (SELECT docid FROM " + InventoryDbHelper.TABLE_ITEMS_FTS
+                + " WHERE " + InventoryDbHelper.TABLE_ITEMS_FTS + " MATCH ?)";
+        matchArgs.add(matchQuery);
+        String filter = buildCatalogFilter(uri, matchArgs);
+        if (null != filter) {
+            match = match + " AND " + filter;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            selection = match;
+            selectionArgs = matchArgs.toArray(new String[matchArgs.size()]);
+        } else {
+            selection = "(" + selection + ") AND " + match;
+            selectionArgs = concat(selectionArgs, matchArgs.toArray(new String[matchArgs.size()]));
+        }
+
+        String sortOrder;
+        String sortColumn = readSortColumn(uri);
+        if (null != sortColumn) {
+            sortOrder = buildSortOrder(sortColumn);
+        } else {
+            // Escaping quotes the search text, so it is safe to use in the sort order
+            String namePrefix = DatabaseUtils.sqlEscapeString(query.trim() + "%");
+            sortOrder = "(" + InventoryEntry.COLUMN_ITEM_NAME + " LIKE " + namePrefix + ") DESC, "
+                    + InventoryEntry.COLUMN_ITEM_NAME;
+        }
+        return database.query(InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, String.valueOf(limit));
+    }
+
+    /**
+     * Turn the text typed by the user into a full-text query, matching every word as a prefix.
+     * For instance "red app" becomes "red* app*". Return null if the text has no words.
+     */
+    private static String buildMatchQuery(String query) {
+        if (null == query) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            // Lower case, so that words like OR and NOT are not read as operators
+            matchQuery.append(word.toLowerCase(Locale.US)).append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Join two selection argument arrays, either of which may be null.
+     */
+    private static String[] concat(String[] first, String[] second) {
+        if (null == first) {
+            return second;
+        }
+        if (null == second) {
+            return first;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
+            case ITEMS_PAGE:
+            case ITEMS_SEARCH:
                 return InventoryEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
                 return InventoryEntry.CONTENT_ITEM_TYPE;
+            case ITEMS_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case ITEMS_EXPORT:
+                return EXPORT_TYPES[0];
+            case ITEM_MOVEMENTS:
+                return MovementEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != ITEMS_EXPORT) {
+            return null;
+        }
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Open the CSV export of the items for reading.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        return openExport(uri, mode, EXPORT_TYPES[0]);
+    }
+
+    /**
+     * Open the export of the items for reading, in the first export type matching the filter.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != ITEMS_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (null == types) {
+            throw new FileNotFoundException("Export is not available as " + mimeTypeFilter);
+        }
+        // The length of a pipe is not known in advance
+        return new AssetFileDescriptor(openExport(uri, "r", types[0]), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Open a pipe and write the export into it on a background thread, while the caller reads
+     * the other end. Nothing is built in memory, the rows are written as they are read.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mode, String mimeType)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != ITEMS_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be read, not opened with mode " + mode);
+        }
+        return openPipeHelper(uri, mimeType, null, null, mExportWriter);
+    }
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
@@ -110,8 +699,13 @@ public class InventoryProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                if (TextUtils.isEmpty(selection)) {
+                    // Delete all rows at once, instead of one by one through the triggers
+                    rowsDeleted = DatabaseMaintenance.truncateItems(database);
+                } else {
+                    // Delete all rows that match the selection and selection args
+                    rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                }
                 break;
             case ITEM_ID:
                 // Delete a single row given by the ID in the URI
@@ -125,7 +719,12 @@ public class InventoryProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCachedRows(uri);
+            notifyChange(uri);
+        }
+        if (rowsDeleted >= RECLAIM_THRESHOLD) {
+            // Give the pages of the deleted rows back without holding up the caller
+            mMaintenanceExecutor.execute(mReclaimRunnable);
         }
         // Return the number of rows deleted
         return rowsDeleted;
@@ -149,30 +748,352 @@ public class InventoryProvider extends ContentProvider {
     }
 
     /**
-     * Helper method to insert item data into the database. For debugging purposes only.
+     * Insert all the given rows in a single transaction. Every row is validated with the same
+     * rules as {@link #insertItem(Uri, ContentValues)}; invalid rows are skipped and logged.
+     * Listeners are notified once at the end instead of once per row.
+     * Return the number of rows that were successfully inserted.
      */
-    private Uri insertItem(Uri uri, ContentValues contentValues) {
-        // Gets the database in write mode
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case ITEMS:
+                return bulkInsertItems(uri, values);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Apply all the operations in a single transaction, so that a batch of inserts, updates and
+     * deletes is either fully written or not written at all. The transaction only yields at the
+     * operations the caller marked with {@link ContentProviderOperation#isYieldAllowed()}; a
+     * yield commits the operations before it, so a batch is only atomic between those points.
+     * Change notifications are held back and sent once per URI after the batch has committed,
+     * and for the operations committed by a yield even when a later one fails.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        final Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        // URIs changed by the operations already committed by a yield
+        final Set<Uri> committedNotifications = new LinkedHashSet<>();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        mBatchNotifications.set(pendingNotifications);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    committedNotifications.addAll(pendingNotifications);
+                    pendingNotifications.clear();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            // The batch has committed, everything it changed is notified
+            committedNotifications.addAll(pendingNotifications);
+        } finally {
+            database.endTransaction();
+            mBatchNotifications.remove();
+            notifyCommitted(committedNotifications);
+        }
+        return results;
+    }
+
+    /**
+     * Notify all listeners once for every URI changed by the committed part of a batch.
+     */
+    private void notifyCommitted(Set<Uri> committedNotifications) {
+        // Rows cached while the batch was running may hold the values from before the commit
+        if (!committedNotifications.isEmpty()) {
+            mRowCache.invalidateAll();
+        }
+        for (Uri uri : committedNotifications) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. While a batch is being
+     * applied on this thread the notification is only recorded, and sent when the batch commits.
+     * Notifications for the same URI within {@link #NOTIFICATION_WINDOW_MS} are merged into one.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pendingNotifications = mBatchNotifications.get();
+        if (null != pendingNotifications) {
+            pendingNotifications.add(uri);
+            return;
+        }
+        mNotificationCoalescer.notifyChange(uri);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        switch (method) {
+            case InventoryContract.METHOD_SELL:
+                int units = null == extras ? 1 : extras.getInt(InventoryContract.EXTRA_UNITS, 1);
+                return moveStock(Uri.parse(arg), units, MovementEntry.REASON_SALE);
+            case InventoryContract.METHOD_RECEIVE:
+                units = null == extras ? 1 : extras.getInt(InventoryContract.EXTRA_UNITS, 1);
+                return moveStock(Uri.parse(arg), units, MovementEntry.REASON_RECEIPT);
+            case InventoryContract.METHOD_COMPACT_MOVEMENTS:
+                long before = null == extras || !extras.containsKey(InventoryContract.EXTRA_BEFORE)
+                        ? System.currentTimeMillis() - MovementEntry.RETENTION_MS
+                        : extras.getLong(InventoryContract.EXTRA_BEFORE);
+                Bundle compaction = new Bundle();
+                compaction.putInt(InventoryContract.EXTRA_ROWS, compactMovements(before));
+                return compaction;
+            case InventoryContract.METHOD_FLUSH_NOTIFICATIONS:
+                mNotificationCoalescer.flush();
+                return null;
+            case InventoryContract.METHOD_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(InventoryContract.EXTRA_CACHE_HITS, mRowCache.getHitCount());
+                stats.putLong(InventoryContract.EXTRA_CACHE_MISSES, mRowCache.getMissCount());
+                return stats;
+            case InventoryContract.METHOD_BACKUP:
+                return backupItems(new File(arg));
+            case InventoryContract.METHOD_RESTORE:
+                return restoreItems(new File(arg));
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Print the timings of the app and the row cache counters. Run with
+     * {@code adb shell dumpsys activity provider com.example.android.storeinventory}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        TimingRegistry.dump(writer);
+        writer.println("Row cache: hits=" + mRowCache.getHitCount() + " misses=" + mRowCache.getMissCount());
+    }
+
+    /**
+     * Write a snapshot of all the items to the given file.
+     */
+    private Bundle backupItems(File file) {
+        int rows;
+        try {
+            rows = InventorySnapshot.write(mDbHelper.getWritableDatabase(), file);
+        } catch (IOException e) {
+            Log.e(TAG, "backupItems: Failed to write " + file + " :: " + e);
+            rows = -1;
+        }
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_ROWS, rows);
+        return result;
+    }
+
+    /**
+     * Replace all the items with the ones of the snapshot in the given file.
+     */
+    private Bundle restoreItems(File file) {
+        int rows;
+        try {
+            rows = InventorySnapshot.restore(mDbHelper.getWritableDatabase(), file);
+            mRowCache.invalidateAll();
+            notifyChange(InventoryEntry.CONTENT_URI);
+        } catch (IOException e) {
+            Log.e(TAG, "restoreItems: Failed to restore " + file + " :: " + e);
+            rows = -1;
+        }
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_ROWS, rows);
+        return result;
+    }
+
+    /**
+     * Sell or receive the given number of units of a single item, appending a movement to the
+     * ledger. A sale is a single guarded insert, so concurrent sales can never lose an update
+     * or drive the stock below zero. Return a bundle with the quantity left and, for a sale,
+     * whether the units were sold.
+     */
+    private Bundle moveStock(Uri uri, int units, int reason) {
+        if (sUriMatcher.match(uri) != ITEM_ID) {
+            throw new IllegalArgumentException("Stock movement is not supported for " + uri);
+        }
+        if (units <= 0) {
+            throw new IllegalArgumentException("Item requires valid number of units to move");
+        }
+        long id = ContentUris.parseId(uri);
+        int delta = reason == MovementEntry.REASON_SALE ? -units : units;
+
+        // Get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Check that the name is not null
+        boolean moved;
+        long quantity;
+        database.beginTransaction();
+        try {
+            moved = StockLedger.append(database, id, delta, reason);
+            try {
+                quantity = DatabaseUtils.longForQuery(database, SQL_ITEM_QUANTITY,
+                        new String[] { String.valueOf(id) });
+            } catch (SQLiteDoneException e) {
+                // The item does not exist
+                quantity = -1;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the movement was added, then notify all listeners that the data at the
+        // given URI has changed
+        if (moved) {
+            invalidateCachedRows(uri);
+            notifyChange(uri);
+            onMovementsAdded(1);
+        }
+
+        Bundle result = new Bundle();
+        if (reason == MovementEntry.REASON_SALE) {
+            result.putBoolean(InventoryContract.EXTRA_SOLD, moved);
+        }
+        result.putInt(InventoryContract.EXTRA_QUANTITY, (int) quantity);
+        return result;
+    }
+
+    /**
+     * Count the movements added to the ledger, and schedule a compaction in the background
+     * every {@link #COMPACTION_INTERVAL} of them.
+     */
+    private void onMovementsAdded(int count) {
+        if (mMovementsSinceCompaction.addAndGet(count) >= COMPACTION_INTERVAL) {
+            mMovementsSinceCompaction.set(0);
+            mMaintenanceExecutor.execute(mCompactionRunnable);
+        }
+    }
+
+    /**
+     * Fold the stock movements older than the given time into checkpoints.
+     * Return the number of movements folded, or -1 if it failed.
+     */
+    private int compactMovements(long before) {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_LEDGER_COMPACTION);
+        try {
+            // The quantities stay the same, so there is nothing to notify
+            return StockLedger.compact(mDbHelper.getWritableDatabase(), before);
+        } catch (SQLiteException e) {
+            // Runs in the background, most likely a full disk; the next compaction tries again
+            Log.e(TAG, "compactMovements: Failed to compact the ledger :: " + e);
+            return -1;
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_LEDGER_COMPACTION, start);
+        }
+    }
+
+    /**
+     * Give the free pages of the database back to the file system, in small steps.
+     */
+    private void reclaimSpace() {
+        long start = TimingRegistry.begin(TimingRegistry.SPAN_RECLAIM_SPACE);
+        try {
+            DatabaseMaintenance.reclaimSpace(mDbHelper.getWritableDatabase());
+        } catch (SQLiteException e) {
+            // Runs in the background, most likely a full disk; the next run tries again
+            Log.e(TAG, "reclaimSpace: Failed to reclaim free pages :: " + e);
+        } finally {
+            TimingRegistry.end(TimingRegistry.SPAN_RECLAIM_SPACE, start);
+        }
+    }
+
+    /**
+     * Check that the item values can be inserted into the database.
+     * Return a message describing the problem, or null if the values are valid.
+     */
+    static String validateItem(ContentValues contentValues) {
         String name = contentValues.getAsString(InventoryEntry.COLUMN_ITEM_NAME);
         Integer quantity = contentValues.getAsInteger(InventoryEntry.COLUMN_ITEM_QUANTITY);
         Integer price = contentValues.getAsInteger(InventoryEntry.COLUMN_ITEM_PRICE);
         if (TextUtils.isEmpty(name)) {
-            Toast.makeText(getContext(), "Item Name is required", Toast.LENGTH_SHORT).show();
-            return null;
-            //throw new IllegalArgumentException("Item requires a name");
+            return "Item Name is required";
         }
         if (null != quantity && quantity < 0) {
-            Toast.makeText(getContext(), "Enter correct quantity", Toast.LENGTH_SHORT).show();
-            return null;
-            //throw new IllegalArgumentException("Item requires valid quantity");
+            return "Enter correct quantity";
         }
         if (null != price && price < 0) {
-            Toast.makeText(getContext(), "Enter correct price", Toast.LENGTH_SHORT).show();
+            return "Enter correct price";
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to insert many items at once. Uses one transaction and one precompiled
+     * insert statement for all the rows, so that the cost per row stays small.
+     */
+    private int bulkInsertItems(Uri uri, ContentValues[] values) {
+        // Gets the database in write mode
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsInserted = 0;
+        database.beginTransaction();
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_ITEM);
+        try {
+            for (ContentValues contentValues : values) {
+                String validationError = validateItem(contentValues);
+                if (null != validationError) {
+                    Log.w(TAG, "bulkInsertItems: Skipping row " + contentValues + " :: " + validationError);
+                    continue;
+                }
+                bindItem(statement, contentValues);
+                if (statement.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            database.endTransaction();
+        }
+
+        // Notify all listeners once that the data has changed for the item content URI,
+        // unless the caller inserts many chunks and notifies once at the end
+        if (rowsInserted != 0
+                && !"false".equals(uri.getQueryParameter(InventoryEntry.QUERY_PARAMETER_NOTIFY))) {
+            notifyChange(InventoryEntry.CONTENT_URI);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Bind the item values to the {@link #SQL_INSERT_ITEM} statement. Missing quantity and
+     * price fall back to the column defaults.
+     */
+    private static void bindItem(SQLiteStatement statement, ContentValues contentValues) {
+        statement.clearBindings();
+        statement.bindString(1, contentValues.getAsString(InventoryEntry.COLUMN_ITEM_NAME));
+        String desc = contentValues.getAsString(InventoryEntry.COLUMN_ITEM_DESC);
+        if (null == desc) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, desc);
+        }
+        Integer quantity = contentValues.getAsInteger(InventoryEntry.COLUMN_ITEM_QUANTITY);
+        statement.bindLong(3, null == quantity ? 0 : quantity);
+        Integer price = contentValues.getAsInteger(InventoryEntry.COLUMN_ITEM_PRICE);
+        statement.bindLong(4, null == price ? 0 : price);
+    }
+
+    /**
+     * Helper method to insert item data into the database. For debugging purposes only.
+     */
+    private Uri insertItem(Uri uri, ContentValues contentValues) {
+        // Gets the database in write mode
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Check that the name is not null and quantity and price are valid
+        // Writes run on a background thread, so the problem is logged rather than shown
+        String validationError = validateItem(contentValues);
+        if (null != validationError) {
+            Log.e(TAG, "insertItem: Invalid item " + contentValues + " :: " + validationError);
             return null;
-            //throw new IllegalArgumentException("Item requires valid price");
         }
 
 
@@ -190,7 +1111,7 @@ public class InventoryProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data has changed for the item content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, newRowId);
@@ -209,7 +1130,7 @@ public class InventoryProvider extends ContentProvider {
             String name = values.getAsString(InventoryEntry.COLUMN_ITEM_NAME);
             if (TextUtils.isEmpty(name)) {
                 //throw new IllegalArgumentException("Item requires a name");
-                Toast.makeText(getContext(), "Item requires a name", Toast.LENGTH_SHORT).show();
+                Log.e(TAG, "updateItem: Item requires a name");
                 return -1;
             }
         }
@@ -231,12 +1152,41 @@ public class InventoryProvider extends ContentProvider {
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(InventoryEntry.TABLE_NAME, values, selection, selectionArgs);
+        // A new quantity is appended to the ledger as an adjustment, which the trigger applies
+        // to the items; the other columns are updated in place
+        Integer quantity = values.getAsInteger(InventoryEntry.COLUMN_ITEM_QUANTITY);
+        ContentValues columns = values;
+        if (null != quantity) {
+            columns = new ContentValues(values);
+            columns.remove(InventoryEntry.COLUMN_ITEM_QUANTITY);
+        }
+
+        int rowsUpdated;
+        int adjusted = 0;
+        database.beginTransaction();
+        try {
+            if (null != quantity) {
+                adjusted = StockLedger.adjust(database, quantity, selection, selectionArgs);
+            }
+            // Perform the update on the database and get the number of rows affected
+            if (columns.size() > 0) {
+                rowsUpdated = database.update(InventoryEntry.TABLE_NAME, columns, selection, selectionArgs);
+            } else {
+                rowsUpdated = (int) DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME,
+                        selection, selectionArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCachedRows(uri);
+            notifyChange(uri);
+        }
+        if (adjusted != 0) {
+            onMovementsAdded(adjusted);
         }
         // Return the number of rows updated
         return rowsUpdated;
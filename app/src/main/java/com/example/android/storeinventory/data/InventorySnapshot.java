@@ -0,0 +1,314 @@
+package com.example.android.storeinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the items table, for backing up and restoring the inventory without
+ * copying the live database file.
+ *
+ * A snapshot starts with a header of {@link #HEADER_SIZE} bytes: the magic number, the format
+ * version, the database version it was taken from, the number of rows and the CRC32 of the
+ * rows. Every row follows as its _ID (long), quantity (int), price (int), name and description,
+ * each text being its UTF-8 length (int, -1 for null) followed by its bytes. All the numbers
+ * are big endian.
+ *
+ * The rows are read inside a read transaction, so the snapshot is consistent, and with
+ * write-ahead logging neither readers nor writers wait for it while it is taken. They are
+ * written through a buffered {@link FileChannel} to a temporary file, which replaces
+ * the snapshot only once complete. A restore maps the file, checks it in full before touching
+ * the database and then loads all the rows in a single transaction.
+ */
+final class InventorySnapshot {
+
+    private static final String TAG = InventorySnapshot.class.getSimpleName();
+
+    /** "INVS", the first bytes of every snapshot */
+    private static final int MAGIC = 0x494E5653;
+
+    /** Version of the snapshot format, to increment whenever the layout of a row changes */
+    static final int FORMAT_VERSION = 1;
+
+    /** Magic, format version, database version, row count and CRC32 */
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+    /** Size of the buffer in front of the file channel */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Number of rows read from the database at once */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_QUANTITY,
+            InventoryEntry.COLUMN_ITEM_PRICE,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC };
+
+    /** Selection of the batch following the last written row */
+    private static final String SELECTION_AFTER_ID = InventoryEntry._ID + " > ?";
+
+    /** Insert statement keeping the _ID of the items, so the restored URIs stay the same */
+    private static final String SQL_RESTORE_ITEM = "INSERT INTO " + InventoryEntry.TABLE_NAME + " ("
+            + InventoryEntry._ID + ", "
+            + InventoryEntry.COLUMN_ITEM_QUANTITY + ", "
+            + InventoryEntry.COLUMN_ITEM_PRICE + ", "
+            + InventoryEntry.COLUMN_ITEM_NAME + ", "
+            + InventoryEntry.COLUMN_ITEM_DESC + ") VALUES (?, ?, ?, ?, ?)";
+
+    private InventorySnapshot() {}
+
+    /**
+     * Write a snapshot of all the items to the given file, replacing it if it exists.
+     * Return the number of rows written.
+     */
+    static int write(SQLiteDatabase database, File file) throws IOException {
+        Log.d(TAG, "write: started :: " + file);
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        int rows;
+        boolean complete = false;
+        try {
+            FileChannel channel = out.getChannel();
+            ChannelWriter writer = new ChannelWriter(channel);
+            // The header is written last, once the rows and their checksum are known
+            channel.position(HEADER_SIZE);
+
+            // A read transaction keeps the view of the table the same across the batches,
+            // without holding back the writers
+            SQLiteDatabase reader = DatabaseMaintenance.beginReadTransaction(database);
+            try {
+                rows = writeRows(reader, writer);
+            } finally {
+                DatabaseMaintenance.endReadTransaction(reader);
+            }
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(InventoryDbHelper.DATABASE_VERSION);
+            header.putInt(rows);
+            header.putLong(writer.getChecksum());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, HEADER_SIZE - header.remaining());
+            }
+            channel.force(false);
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete) {
+                tempFile.delete();
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        Log.d(TAG, "write: ended :: " + rows + " rows, " + file.length() + " bytes");
+        return rows;
+    }
+
+    private static int writeRows(SQLiteDatabase database, ChannelWriter writer) throws IOException {
+        String[] selectionArgs = new String[1];
+        long lastId = -1;
+        int rows = 0;
+        int batchRows;
+        do {
+            batchRows = 0;
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = database.query(InventoryEntry.TABLE_NAME, PROJECTION, SELECTION_AFTER_ID,
+                    selectionArgs, null, null, InventoryEntry._ID, String.valueOf(BATCH_SIZE));
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    writer.putLong(lastId);
+                    writer.putInt(cursor.getInt(1));
+                    writer.putInt(cursor.getInt(2));
+                    writer.putString(cursor.getString(3));
+                    writer.putString(cursor.getString(4));
+                    batchRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rows += batchRows;
+        } while (batchRows == BATCH_SIZE);
+        return rows;
+    }
+
+    /**
+     * Replace all the items with the ones of the given snapshot, in a single transaction.
+     * The snapshot is checked first, so a damaged file leaves the items as they are.
+     * Return the number of rows restored.
+     */
+    static int restore(SQLiteDatabase database, File file) throws IOException {
+        Log.d(TAG, "restore: started :: " + file);
+        FileInputStream in = new FileInputStream(file);
+        int rows;
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Snapshot is too short");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot");
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format " + formatVersion);
+            }
+            // Any database version can be restored, the row layout only depends on the format
+            int databaseVersion = buffer.getInt();
+            rows = buffer.getInt();
+            long checksum = buffer.getLong();
+            if (checksum(buffer) != checksum) {
+                throw new IOException("Snapshot is damaged");
+            }
+            Log.d(TAG, "restore: " + rows + " rows from database version " + databaseVersion);
+
+            buffer.position(HEADER_SIZE);
+            database.beginTransaction();
+            SQLiteStatement statement = database.compileStatement(SQL_RESTORE_ITEM);
+            try {
+                DatabaseMaintenance.truncateItems(database);
+                readRows(buffer, rows, statement);
+                database.setTransactionSuccessful();
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Snapshot is damaged", e);
+            } finally {
+                statement.close();
+                database.endTransaction();
+            }
+        } finally {
+            in.close();
+        }
+        Log.d(TAG, "restore: ended :: " + rows + " rows");
+        return rows;
+    }
+
+    private static void readRows(ByteBuffer buffer, int rows, SQLiteStatement statement) {
+        // Text bytes are copied into the same array for every row
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < rows; i++) {
+            statement.clearBindings();
+            statement.bindLong(1, buffer.getLong());
+            statement.bindLong(2, buffer.getInt());
+            statement.bindLong(3, buffer.getInt());
+            for (int index = 4; index <= 5; index++) {
+                int length = buffer.getInt();
+                if (length == -1) {
+                    statement.bindNull(index);
+                    continue;
+                }
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, length);
+                statement.bindString(index, new String(bytes, 0, length, UTF_8));
+            }
+            statement.executeInsert();
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " bytes after the last row");
+        }
+    }
+
+    /**
+     * Return the CRC32 of the rows, the bytes after the header.
+     */
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        buffer.position(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Buffers the rows in front of the file channel and computes their checksum.
+     */
+    private static final class ChannelWriter {
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 mCrc = new CRC32();
+
+        ChannelWriter(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRemaining(8);
+            mBuffer.putLong(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRemaining(4);
+            mBuffer.putInt(value);
+        }
+
+        void putString(String value) throws IOException {
+            if (null == value) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            putInt(bytes.length);
+            if (bytes.length > mBuffer.capacity()) {
+                // Longer than the buffer, written on its own
+                flush();
+                mCrc.update(bytes, 0, bytes.length);
+                writeFully(ByteBuffer.wrap(bytes));
+                return;
+            }
+            ensureRemaining(bytes.length);
+            mBuffer.put(bytes);
+        }
+
+        long getChecksum() {
+            return mCrc.getValue();
+        }
+
+        void flush() throws IOException {
+            mCrc.update(mBuffer.array(), 0, mBuffer.position());
+            mBuffer.flip();
+            writeFully(mBuffer);
+            mBuffer.clear();
+        }
+
+        private void ensureRemaining(int length) throws IOException {
+            if (mBuffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        }
+    }
+}
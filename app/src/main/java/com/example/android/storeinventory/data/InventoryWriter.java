@@ -0,0 +1,199 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all the writes to {@link InventoryProvider} off the UI thread. Writes are run one at a
+ * time in the order they were dispatched, so writes to the same item are never reordered.
+ * The result of every write is delivered to its {@link Callback} on the main thread, a failed
+ * write included: a write throwing is logged and delivers its failure result, so the writer
+ * thread keeps going and the writes after it are still counted in order.
+ */
+public final class InventoryWriter {
+
+    private static final String TAG = InventoryWriter.class.getSimpleName();
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback<T> {
+        void onComplete(T result);
+    }
+
+    private static InventoryWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Number of writes that have returned, each one is committed once counted */
+    private final AtomicLong mCompletedWriteCount = new AtomicLong();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "InventoryWriter");
+        }
+    });
+
+    private InventoryWriter(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the writer shared by the whole app.
+     */
+    public static synchronized InventoryWriter getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new InventoryWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert an item. The callback receives the URI of the new item, or null if it failed.
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mContentResolver.insert(uri, values);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "insert: Failed to insert " + values + " :: " + e);
+                }
+                deliver(callback, newUri);
+            }
+        });
+    }
+
+    /**
+     * Update the items at the URI. The callback receives the number of rows updated,
+     * or -1 if the values were rejected or the update failed.
+     */
+    public void update(final Uri uri, final ContentValues values, final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsUpdated = -1;
+                try {
+                    rowsUpdated = mContentResolver.update(uri, values, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "update: Failed to update " + uri + " :: " + e);
+                }
+                deliver(callback, rowsUpdated);
+            }
+        });
+    }
+
+    /**
+     * Delete the items at the URI. The callback receives the number of rows deleted,
+     * or -1 if the delete failed.
+     */
+    public void delete(final Uri uri, final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = -1;
+                try {
+                    rowsDeleted = mContentResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "delete: Failed to delete " + uri + " :: " + e);
+                }
+                deliver(callback, rowsDeleted);
+            }
+        });
+    }
+
+    /**
+     * Sell units of a single item, see {@link InventoryContract#METHOD_SELL}.
+     * The callback receives the result bundle of the sale, or null if the sale failed.
+     */
+    public void sell(final Uri itemUri, final int units, final Callback<Bundle> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putInt(InventoryContract.EXTRA_UNITS, units);
+                Bundle result = null;
+                try {
+                    result = mContentResolver.call(InventoryEntry.CONTENT_URI,
+                            InventoryContract.METHOD_SELL, itemUri.toString(), extras);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "sell: Failed to sell " + units + " of " + itemUri + " :: " + e);
+                }
+                deliver(callback, result);
+            }
+        });
+    }
+
+    /**
+     * Write a snapshot of all the items to the given file, see
+     * {@link InventoryContract#METHOD_BACKUP}. The callback receives the number of items
+     * written, or -1 if it failed.
+     */
+    public void backup(File file, Callback<Integer> callback) {
+        callSnapshot(InventoryContract.METHOD_BACKUP, file, callback);
+    }
+
+    /**
+     * Replace all the items with the ones of the snapshot in the given file, see
+     * {@link InventoryContract#METHOD_RESTORE}. The callback receives the number of items
+     * restored, or -1 if it failed.
+     */
+    public void restore(File file, Callback<Integer> callback) {
+        callSnapshot(InventoryContract.METHOD_RESTORE, file, callback);
+    }
+
+    private void callSnapshot(final String method, final File file, final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle result = null;
+                try {
+                    result = mContentResolver.call(InventoryEntry.CONTENT_URI, method,
+                            file.getAbsolutePath(), null);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "callSnapshot: Failed to " + method + " " + file + " :: " + e);
+                }
+                deliver(callback, null == result ? -1 : result.getInt(InventoryContract.EXTRA_ROWS, -1));
+            }
+        });
+    }
+
+    /**
+     * Return the number of writes that have returned so far. A query started after reading
+     * this number sees all of those writes, as writes run one at a time in order.
+     */
+    public long getCompletedWriteCount() {
+        return mCompletedWriteCount.get();
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        // Counted before the callback runs, so the callback reads at least its own write
+        mCompletedWriteCount.incrementAndGet();
+        if (null == callback) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+}
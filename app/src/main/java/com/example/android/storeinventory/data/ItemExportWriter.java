@@ -0,0 +1,198 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the export of {@link InventoryEntry#EXPORT_URI} into the pipe opened by
+ * {@link InventoryProvider}, as CSV or JSON depending on the requested MIME type.
+ *
+ * The items are read forward, in batches of {@link #BATCH_SIZE} rows following the last
+ * {@link InventoryEntry#_ID} written. A single cursor over the whole table would count every
+ * row before returning the first one, and the window of each batch is small, so the first
+ * bytes reach the reader right away and memory stays the same for any number of items.
+ * All the batches are read in one read transaction, see
+ * {@link DatabaseMaintenance#beginReadTransaction}, so an item updated during the export is
+ * neither written twice nor missed, and the writers never wait for the export. When the reader closes its end of the pipe the export simply stops.
+ */
+class ItemExportWriter implements ContentProvider.PipeDataWriter<Void> {
+
+    private static final String TAG = ItemExportWriter.class.getSimpleName();
+
+    /** Number of rows read from the database at once */
+    private static final int BATCH_SIZE = 500;
+
+    /** Size of the buffer in front of the pipe */
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    private static final String[] PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC,
+            InventoryEntry.COLUMN_ITEM_QUANTITY,
+            InventoryEntry.COLUMN_ITEM_PRICE };
+
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_NAME = 1;
+    private static final int INDEX_DESC = 2;
+    private static final int INDEX_QUANTITY = 3;
+    private static final int INDEX_PRICE = 4;
+
+    /** First line of the CSV export, the columns expected by {@link ItemImporter} */
+    private static final String CSV_HEADER = "name,description,quantity,price\n";
+
+    /** Selection of the batch following the last written row */
+    private static final String SELECTION_AFTER_ID = InventoryEntry._ID + " > ?";
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    ItemExportWriter(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Void args) {
+        writeItems(output, InventoryEntry.EXPORT_TYPE_JSON.equals(mimeType));
+    }
+
+    /**
+     * Write all the items into the pipe, as JSON or CSV. Return the number of rows written,
+     * fewer than the items when the reader closed the pipe before the end.
+     */
+    @VisibleForTesting
+    long writeItems(ParcelFileDescriptor output, boolean json) {
+        Log.d(TAG, "writeItems: started :: " + (json ? "json" : "csv"));
+        // The pipe is closed by the provider once this returns, so the writer is only flushed
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), Charset.forName("UTF-8")),
+                WRITE_BUFFER_SIZE);
+        long rows = 0;
+        try {
+            if (json) {
+                writer.write('[');
+            } else {
+                writer.write(CSV_HEADER);
+            }
+            // The reader gets the first bytes before any row is read
+            writer.flush();
+
+            SQLiteDatabase database = DatabaseMaintenance.beginReadTransaction(
+                    mDbHelper.getReadableDatabase());
+            try {
+                String[] selectionArgs = new String[1];
+                long lastId = -1;
+                int batchRows;
+                do {
+                    batchRows = 0;
+                    selectionArgs[0] = String.valueOf(lastId);
+                    Cursor cursor = database.query(InventoryEntry.TABLE_NAME, PROJECTION,
+                            SELECTION_AFTER_ID, selectionArgs, null, null, InventoryEntry._ID,
+                            String.valueOf(BATCH_SIZE));
+                    try {
+                        while (cursor.moveToNext()) {
+                            if (json) {
+                                writeJsonRow(writer, cursor, rows == 0);
+                            } else {
+                                writeCsvRow(writer, cursor);
+                            }
+                            lastId = cursor.getLong(INDEX_ID);
+                            batchRows++;
+                            rows++;
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } while (batchRows == BATCH_SIZE);
+            } finally {
+                DatabaseMaintenance.endReadTransaction(database);
+            }
+
+            if (json) {
+                writer.write("\n]\n");
+            }
+            writer.flush();
+            Log.d(TAG, "writeItems: ended :: " + rows + " rows");
+        } catch (IOException e) {
+            // Most likely the reader closed the pipe before the end, nothing more to write
+            Log.w(TAG, "writeItems: Export stopped after " + rows + " rows :: " + e);
+        }
+        return rows;
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        writeCsvField(writer, cursor.getString(INDEX_NAME));
+        writer.write(',');
+        writeCsvField(writer, cursor.getString(INDEX_DESC));
+        writer.write(',');
+        writer.write(String.valueOf(cursor.getInt(INDEX_QUANTITY)));
+        writer.write(',');
+        writer.write(String.valueOf(cursor.getInt(INDEX_PRICE)));
+        writer.write('\n');
+    }
+
+    /**
+     * Write a text field, quoted when it holds a separator, a quote, a line break or spaces
+     * at either end, which the import would otherwise trim.
+     */
+    private static void writeCsvField(Writer writer, String field) throws IOException {
+        if (null == field || field.isEmpty()) {
+            return;
+        }
+        boolean quote = Character.isWhitespace(field.charAt(0))
+                || Character.isWhitespace(field.charAt(field.length() - 1));
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                // A quote inside a quoted field is doubled
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor, boolean first) throws IOException {
+        writer.write(first ? "\n{\"" : ",\n{\"");
+        writer.write(InventoryEntry._ID);
+        writer.write("\":");
+        writer.write(String.valueOf(cursor.getLong(INDEX_ID)));
+        writer.write(",\"" + InventoryEntry.COLUMN_ITEM_NAME + "\":");
+        writer.write(JSONObject.quote(cursor.getString(INDEX_NAME)));
+        writer.write(",\"" + InventoryEntry.COLUMN_ITEM_DESC + "\":");
+        String desc = cursor.getString(INDEX_DESC);
+        writer.write(null == desc ? "null" : JSONObject.quote(desc));
+        writer.write(",\"" + InventoryEntry.COLUMN_ITEM_QUANTITY + "\":");
+        writer.write(String.valueOf(cursor.getInt(INDEX_QUANTITY)));
+        writer.write(",\"" + InventoryEntry.COLUMN_ITEM_PRICE + "\":");
+        writer.write(String.valueOf(cursor.getInt(INDEX_PRICE)));
+        writer.write('}');
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Imports items from a CSV file with the columns name, description, quantity and price, such
+ * as a supplier catalog. The file is read as a stream, one record at a time, and the rows are
+ * inserted in chunks of {@link #CHUNK_SIZE}, each in its own transaction, so memory stays the
+ * same for any file size. Rows are validated with the same rules as a single insert; invalid
+ * rows are skipped and counted.
+ *
+ * One import runs at a time, on its own thread, so it never delays the writes of
+ * {@link InventoryWriter}. Progress is delivered on the main thread and the import can be
+ * cancelled between two chunks; the chunks written so far stay in the database.
+ */
+public final class ItemImporter {
+
+    private static final String TAG = ItemImporter.class.getSimpleName();
+
+    /** Number of rows inserted in a single transaction */
+    public static final int CHUNK_SIZE = 500;
+
+    /** Minimum time between two progress updates */
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    /** Size of the buffer of the line reader */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** Chunks are inserted without notification, the listeners are notified once at the end */
+    private static final Uri CHUNK_URI = InventoryEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(InventoryEntry.QUERY_PARAMETER_NOTIFY, "false")
+            .build();
+
+    /**
+     * Receives the progress of an import on the main thread.
+     */
+    public interface Listener {
+        void onProgress(Progress progress);
+
+        /** Called once when the import has completed, failed or been cancelled */
+        void onFinished(Progress progress);
+    }
+
+    /**
+     * Immutable state of an import at some point.
+     */
+    public static final class Progress {
+        /** Number of lines read, including the header and the invalid lines */
+        public final long linesRead;
+        /** Number of items inserted */
+        public final long rowsImported;
+        /** Number of lines that could not be imported */
+        public final long rowsSkipped;
+        /** Number of bytes read from the file */
+        public final long bytesRead;
+        /** Size of the file, or -1 if it is not known */
+        public final long totalBytes;
+        /** Time since the import started */
+        public final long elapsedMs;
+        /** Whether the import was cancelled */
+        public final boolean cancelled;
+        /** Description of the error that stopped the import, or null */
+        public final String error;
+
+        Progress(long linesRead, long rowsImported, long rowsSkipped, long bytesRead,
+                 long totalBytes, long elapsedMs, boolean cancelled, String error) {
+            this.linesRead = linesRead;
+            this.rowsImported = rowsImported;
+            this.rowsSkipped = rowsSkipped;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedMs = elapsedMs;
+            this.cancelled = cancelled;
+            this.error = error;
+        }
+
+        /**
+         * Return the part of the file read so far, between 0 and 100, or -1 if the size of
+         * the file is not known.
+         */
+        public int getPercent() {
+            if (totalBytes <= 0) {
+                return -1;
+            }
+            return (int) Math.min(100, bytesRead * 100 / totalBytes);
+        }
+
+        /** Return the number of rows imported per second */
+        public long getRowsPerSecond() {
+            return elapsedMs == 0 ? 0 : rowsImported * 1000 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d lines, %d imported, %d skipped, %d/%d bytes, %d ms, %d rows/s%s%s",
+                    linesRead, rowsImported, rowsSkipped, bytesRead, totalBytes, elapsedMs,
+                    getRowsPerSecond(), cancelled ? ", cancelled" : "",
+                    null != error ? ", error: " + error : "");
+        }
+    }
+
+    /**
+     * A running import.
+     */
+    public static final class Task {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private volatile boolean mCancelled;
+        private Listener mListener;
+        private Progress mProgress;
+        private boolean mFinished;
+
+        // Counters of the import, only used on the import thread. They are kept with the task
+        // so an import stopped by an error still reports the chunks it committed
+        private long mLinesRead;
+        private long mRowsImported;
+        private long mRowsSkipped;
+        private long mBytesRead;
+
+        /**
+         * Stop the import after the chunk being written.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Return the progress made so far, on the import thread.
+         */
+        private Progress newProgress(long totalBytes, long elapsedMs, String error) {
+            return new Progress(mLinesRead, mRowsImported, mRowsSkipped, mBytesRead, totalBytes,
+                    elapsedMs, mCancelled, error);
+        }
+
+        /**
+         * Set the listener of the import, on the main thread. The listener is called right
+         * away with the latest progress, so a new activity can pick up a running import.
+         */
+        public void setListener(Listener listener) {
+            mListener = listener;
+            if (null != listener && null != mProgress) {
+                if (mFinished) {
+                    listener.onFinished(mProgress);
+                } else {
+                    listener.onProgress(mProgress);
+                }
+            }
+        }
+
+        /**
+         * Deliver the progress to the listener on the main thread.
+         */
+        private void post(final Progress progress, final boolean finished) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(progress, finished);
+                }
+            });
+        }
+
+        private void deliver(Progress progress, boolean finished) {
+            mProgress = progress;
+            mFinished = finished;
+            if (null == mListener) {
+                return;
+            }
+            if (finished) {
+                mListener.onFinished(progress);
+            } else {
+                mListener.onProgress(progress);
+            }
+        }
+    }
+
+    private static ItemImporter sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ItemImporter");
+        }
+    });
+
+    /** The import running or last finished, only used on the main thread */
+    private Task mCurrentTask;
+
+    private ItemImporter(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the importer shared by the whole app.
+     */
+    public static synchronized ItemImporter getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new ItemImporter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the running import, or null if there is none. Must be called on the main thread.
+     */
+    public Task getCurrentTask() {
+        return null != mCurrentTask && !mCurrentTask.mFinished ? mCurrentTask : null;
+    }
+
+    /**
+     * Start importing the file at the given URI. Must be called on the main thread.
+     */
+    public Task start(final Uri source, Listener listener) {
+        final Task task = new Task();
+        task.setListener(listener);
+        mCurrentTask = task;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Progress progress;
+                long totalBytes = readSize(source);
+                try {
+                    InputStream in = mContentResolver.openInputStream(source);
+                    if (null == in) {
+                        throw new IOException("Cannot open " + source);
+                    }
+                    try {
+                        progress = importItems(mContentResolver, in, totalBytes, task);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // The file could not be opened or closed, failures of the import itself
+                    // are reported by importItems
+                    Log.e(TAG, "start: Failed to import " + source + " :: " + e);
+                    progress = task.newProgress(totalBytes, 0, e.toString());
+                }
+                Log.d(TAG, "start: import of " + source + " finished :: " + progress);
+                task.post(progress, true);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Return the size of the file, or -1 if the provider of the file doesn't tell.
+     */
+    private long readSize(Uri source) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = mContentResolver.openAssetFileDescriptor(source, "r");
+            return null == descriptor ? -1 : descriptor.getLength();
+        } catch (IOException | SecurityException e) {
+            return -1;
+        } finally {
+            if (null != descriptor) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Nothing to do, the size is known already
+                }
+            }
+        }
+    }
+
+    /**
+     * Import the items of the CSV stream, on the calling thread. The first line is skipped
+     * when it is a header, that is when its first field is "name".
+     * Return the final progress; the stream is left open. An error reading the stream or
+     * writing a chunk, such as a full disk, stops the import and is reported in the progress,
+     * together with the chunks committed before it.
+     */
+    @VisibleForTesting
+    static Progress importItems(ContentResolver resolver, InputStream in, long totalBytes, Task task) {
+        long start = SystemClock.elapsedRealtime();
+        CountingInputStream countingIn = new CountingInputStream(in);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(countingIn, Charset.forName("UTF-8")), READ_BUFFER_SIZE);
+        CsvRecordReader records = new CsvRecordReader(reader);
+        String[] fields = new String[4];
+
+        // The same values are filled again for every chunk, the provider doesn't keep them
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk[i] = new ContentValues(4);
+        }
+        int chunkRows = 0;
+
+        long lastProgress = start;
+        String failure = null;
+        try {
+            while (!task.isCancelled() && records.next(fields)) {
+                long linesRead = records.getLinesRead();
+                task.mLinesRead = linesRead;
+                int fieldCount = records.getFieldCount();
+                if (linesRead == 1 && fieldCount > 0 && "name".equalsIgnoreCase(fields[0].trim())) {
+                    continue;
+                }
+                if (records.getText().isEmpty()) {
+                    task.mRowsSkipped++;
+                    continue;
+                }
+
+                ContentValues values = chunk[chunkRows];
+                values.clear();
+                String error = fieldCount == -1 ? "Unclosed quote" : readItem(fields, values);
+                if (null == error) {
+                    error = InventoryProvider.validateItem(values);
+                }
+                if (null != error) {
+                    Log.w(TAG, "importItems: Skipping line " + linesRead + " :: " + error);
+                    task.mRowsSkipped++;
+                    continue;
+                }
+
+                chunkRows++;
+                if (chunkRows == CHUNK_SIZE) {
+                    int inserted = resolver.bulkInsert(CHUNK_URI, chunk);
+                    task.mRowsImported += inserted;
+                    task.mRowsSkipped += chunkRows - inserted;
+                    chunkRows = 0;
+
+                    long now = SystemClock.elapsedRealtime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_MS) {
+                        lastProgress = now;
+                        task.mBytesRead = countingIn.getCount();
+                        task.post(task.newProgress(totalBytes, now - start, null), false);
+                    }
+                }
+            }
+            if (chunkRows > 0 && !task.isCancelled()) {
+                int inserted = resolver.bulkInsert(CHUNK_URI, Arrays.copyOf(chunk, chunkRows));
+                task.mRowsImported += inserted;
+                task.mRowsSkipped += chunkRows - inserted;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Also a full disk or a refused insert, which must not end the app nor leave the
+            // task running forever; a chunk is a transaction, so it is committed whole or not
+            Log.e(TAG, "importItems: Failed after " + task.mRowsImported + " rows :: " + e);
+            failure = e.toString();
+        } finally {
+            // The chunks were written without notification, so notify once for all of them,
+            // including the ones written before a failure
+            if (task.mRowsImported > 0) {
+                resolver.notifyChange(InventoryEntry.CONTENT_URI, null);
+            }
+        }
+        task.mBytesRead = countingIn.getCount();
+        return task.newProgress(totalBytes, SystemClock.elapsedRealtime() - start, failure);
+    }
+
+    /**
+     * Put the fields of a line into the values. Return a message describing the problem,
+     * or null if the numbers could be read.
+     */
+    private static String readItem(String[] fields, ContentValues values) {
+        values.put(InventoryEntry.COLUMN_ITEM_NAME, trimOrNull(fields[0]));
+        values.put(InventoryEntry.COLUMN_ITEM_DESC, trimOrNull(fields[1]));
+        try {
+            String quantity = trimOrNull(fields[2]);
+            values.put(InventoryEntry.COLUMN_ITEM_QUANTITY, null == quantity ? 0 : Integer.parseInt(quantity));
+            String price = trimOrNull(fields[3]);
+            values.put(InventoryEntry.COLUMN_ITEM_PRICE, null == price ? 0 : Integer.parseInt(price));
+        } catch (NumberFormatException e) {
+            return "Invalid number " + e.getMessage();
+        }
+        return null;
+    }
+
+    private static String trimOrNull(String field) {
+        if (null == field) {
+            return null;
+        }
+        String trimmed = field.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    /**
+     * Counts the bytes read from the file, for the progress.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
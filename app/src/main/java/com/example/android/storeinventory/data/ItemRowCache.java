@@ -0,0 +1,151 @@
+package com.example.android.storeinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+
+/**
+ * Bounded least-recently-used cache of single item rows, keyed by {@link InventoryEntry#_ID}.
+ * Used by {@link InventoryProvider} to answer item queries without going to the database.
+ */
+class ItemRowCache {
+
+    /** Columns of a cached row, in the order the values are stored */
+    static final String[] COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_ITEM_NAME,
+            InventoryEntry.COLUMN_ITEM_DESC,
+            InventoryEntry.COLUMN_ITEM_QUANTITY,
+            InventoryEntry.COLUMN_ITEM_PRICE };
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /**
+     * Incremented on every invalidation. A row read from the database is only cached if no
+     * invalidation happened since the read started, so a concurrent write can't leave a
+     * stale row behind.
+     */
+    private long mGeneration;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * Constructs a new instance of {@link ItemRowCache}.
+     *
+     * @param maxRows maximum number of rows kept in the cache
+     */
+    ItemRowCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Return the cached row of the item, or null if the item is not cached.
+     */
+    synchronized Object[] get(long id) {
+        Object[] row = mRows.get(id);
+        if (null == row) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return row;
+    }
+
+    /**
+     * Return the current generation, to be passed to {@link #put} once the row has been read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the row of the item, unless it was invalidated since the given generation.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Drop the cached row of a single item. Call this after the change has been committed.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drop all the cached rows. Call this after the change has been committed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Return true if all the columns of the projection are held by a cached row.
+     */
+    static boolean canServe(String[] projection) {
+        if (null == projection) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the cached columns of the row the cursor is positioned on.
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        row[0] = cursor.getLong(0);
+        row[1] = cursor.getString(1);
+        row[2] = cursor.isNull(2) ? null : cursor.getString(2);
+        row[3] = cursor.getLong(3);
+        row[4] = cursor.getLong(4);
+        return row;
+    }
+
+    /**
+     * Build an in-memory cursor with the given projection, holding the row if it isn't null.
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        if (null == projection) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (null != row) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row[columnIndex(projection[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
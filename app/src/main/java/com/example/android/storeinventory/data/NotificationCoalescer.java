@@ -0,0 +1,115 @@
+package com.example.android.storeinventory.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges change notifications sent by {@link InventoryProvider} within a short window, so that
+ * a burst of writes makes the loaders requery once instead of once per write.
+ * The first notification opens the window; when it closes, every distinct URI is notified once.
+ */
+class NotificationCoalescer {
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+    private final long mWindowMs;
+
+    /** URIs waiting for the window to close, guarded by this */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /** Whether a flush is already scheduled, guarded by this */
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructs a new instance of {@link NotificationCoalescer}.
+     *
+     * @param contentResolver used to deliver the notifications
+     * @param looper the notifications are delivered on
+     * @param windowMs how long notifications are held and merged; 0 delivers them right away
+     */
+    NotificationCoalescer(ContentResolver contentResolver, Looper looper, long windowMs) {
+        mContentResolver = contentResolver;
+        mHandler = new Handler(looper);
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Notify the listeners of the given URI when the current window closes. Call this only
+     * after the write that changed the data has been committed.
+     */
+    void notifyChange(Uri uri) {
+        if (mWindowMs <= 0) {
+            mContentResolver.notifyChange(uri, null);
+            return;
+        }
+        synchronized (this) {
+            addPendingUri(uri);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mWindowMs);
+            }
+        }
+    }
+
+    /**
+     * Deliver all the pending notifications right away, on the calling thread.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            mContentResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Add the URI to the pending ones. A notification for a URI also reaches the listeners of
+     * the URIs below it, so a URI already covered by a pending parent is dropped, and the
+     * pending children of a new parent are replaced by it.
+     */
+    private void addPendingUri(Uri uri) {
+        for (Iterator<Uri> iterator = mPendingUris.iterator(); iterator.hasNext(); ) {
+            Uri pendingUri = iterator.next();
+            if (isSameOrParent(pendingUri, uri)) {
+                return;
+            }
+            if (isSameOrParent(uri, pendingUri)) {
+                iterator.remove();
+            }
+        }
+        mPendingUris.add(uri);
+    }
+
+    /**
+     * Return true if the child URI is the parent URI or lies below it.
+     */
+    private static boolean isSameOrParent(Uri parent, Uri child) {
+        if (!parent.getAuthority().equals(child.getAuthority())) {
+            return false;
+        }
+        List<String> parentSegments = parent.getPathSegments();
+        List<String> childSegments = child.getPathSegments();
+        return childSegments.size() >= parentSegments.size()
+                && childSegments.subList(0, parentSegments.size()).equals(parentSegments);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.storeinventory.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.storeinventory.data.InventoryContract.InventoryEntry;
+import com.example.android.storeinventory.data.InventoryContract.MovementEntry;
+import com.example.android.storeinventory.data.InventoryContract.StatsEntry;
+
+/**
+ * Writes to the stock movements ledger. A change of stock is a single insert of a movement;
+ * the trigger of the movements table adds it to the quantity of the item in the same
+ * statement, so the quantity is never read and written back by the app and the catalog keeps
+ * reading it straight from the items table.
+ */
+final class StockLedger {
+
+    private static final String TAG = StockLedger.class.getSimpleName();
+
+    /** Columns of a movement, in the order of the insert statements */
+    private static final String MOVEMENT_COLUMNS = " (" + MovementEntry.COLUMN_ITEM_ID + ", "
+            + MovementEntry.COLUMN_DELTA + ", " + MovementEntry.COLUMN_REASON + ", "
+            + MovementEntry.COLUMN_TIME + ") ";
+
+    /** Adds a movement to a single item, only when its quantity doesn't go below zero */
+    private static final String SQL_APPEND_MOVEMENT = "INSERT INTO " + MovementEntry.TABLE_NAME
+            + MOVEMENT_COLUMNS + "SELECT " + InventoryEntry._ID + ", ?, ?, ? FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry._ID + " = ? AND " + InventoryEntry.COLUMN_ITEM_QUANTITY + " + ? >= 0";
+
+    /**
+     * Adds the adjustment bringing every selected item to the given quantity, followed by the
+     * selection and the condition skipping the items already at that quantity
+     */
+    private static final String SQL_ADJUST_PREFIX = "INSERT INTO " + MovementEntry.TABLE_NAME
+            + MOVEMENT_COLUMNS + "SELECT " + InventoryEntry._ID + ", ? - " + InventoryEntry.COLUMN_ITEM_QUANTITY
+            + ", " + MovementEntry.REASON_ADJUSTMENT + ", ? FROM " + InventoryEntry.TABLE_NAME + " WHERE ";
+
+    /** Adds one checkpoint per item with more than one movement before the given time */
+    private static final String SQL_INSERT_CHECKPOINTS = "INSERT INTO " + MovementEntry.TABLE_NAME
+            + MOVEMENT_COLUMNS + "SELECT " + MovementEntry.COLUMN_ITEM_ID + ", SUM(" + MovementEntry.COLUMN_DELTA
+            + "), " + MovementEntry.REASON_CHECKPOINT + ", MAX(" + MovementEntry.COLUMN_TIME + ") FROM "
+            + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry.COLUMN_TIME + " < ? GROUP BY "
+            + MovementEntry.COLUMN_ITEM_ID + " HAVING COUNT(*) > 1";
+
+    /** Removes the movements replaced by the checkpoints added after the given _ID */
+    private static final String SQL_DELETE_FOLDED = "DELETE FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry._ID + " <= ? AND " + MovementEntry.COLUMN_TIME + " < ? AND "
+            + MovementEntry.COLUMN_ITEM_ID + " IN (SELECT " + MovementEntry.COLUMN_ITEM_ID + " FROM "
+            + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry._ID + " > ?)";
+
+    /** Records the time of the compaction */
+    private static final String SQL_SET_LAST_COMPACTION = "UPDATE " + StatsEntry.TABLE_NAME
+            + " SET " + StatsEntry.COLUMN_LAST_COMPACTION + " = ?";
+
+    private StockLedger() {}
+
+    /**
+     * Append a movement of the given item. Return whether it was added, which is not the
+     * case when the item doesn't exist or doesn't have enough units left.
+     */
+    static boolean append(SQLiteDatabase database, long itemId, int delta, int reason) {
+        SQLiteStatement append = database.compileStatement(SQL_APPEND_MOVEMENT);
+        try {
+            append.bindLong(1, delta);
+            append.bindLong(2, reason);
+            append.bindLong(3, System.currentTimeMillis());
+            append.bindLong(4, itemId);
+            append.bindLong(5, delta);
+            return append.executeInsert() != -1;
+        } finally {
+            append.close();
+        }
+    }
+
+    /**
+     * Append an adjustment to every item of the selection whose quantity differs from the
+     * given one. Return the number of items adjusted.
+     */
+    static int adjust(SQLiteDatabase database, int quantity, String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder(SQL_ADJUST_PREFIX);
+        if (null != selection && !selection.isEmpty()) {
+            sql.append('(').append(selection).append(") AND ");
+        }
+        sql.append(InventoryEntry.COLUMN_ITEM_QUANTITY).append(" != ?");
+
+        SQLiteStatement adjust = database.compileStatement(sql.toString());
+        try {
+            int index = 1;
+            adjust.bindLong(index++, quantity);
+            adjust.bindLong(index++, System.currentTimeMillis());
+            if (null != selectionArgs) {
+                for (String arg : selectionArgs) {
+                    adjust.bindString(index++, arg);
+                }
+            }
+            adjust.bindLong(index, quantity);
+            return adjust.executeUpdateDelete();
+        } finally {
+            adjust.close();
+        }
+    }
+
+    /**
+     * Fold the movements older than the given time into a single checkpoint per item, holding
+     * their sum. The quantities don't change. The time of the compaction is kept, see
+     * {@link #getLastCompaction}. Return the number of movements folded.
+     */
+    static int compact(SQLiteDatabase database, long before) {
+        Log.d(TAG, "compact: started");
+        int folded;
+        database.beginTransaction();
+        try {
+            // The checkpoints are the only movements added after this one within the transaction
+            long lastId = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + MovementEntry._ID
+                    + "), 0) FROM " + MovementEntry.TABLE_NAME, null);
+
+            SQLiteStatement insert = database.compileStatement(SQL_INSERT_CHECKPOINTS);
+            try {
+                insert.bindLong(1, before);
+                insert.executeUpdateDelete();
+            } finally {
+                insert.close();
+            }
+
+            SQLiteStatement delete = database.compileStatement(SQL_DELETE_FOLDED);
+            try {
+                delete.bindLong(1, lastId);
+                delete.bindLong(2, before);
+                delete.bindLong(3, lastId);
+                folded = delete.executeUpdateDelete();
+            } finally {
+                delete.close();
+            }
+
+            SQLiteStatement setLastCompaction = database.compileStatement(SQL_SET_LAST_COMPACTION);
+            try {
+                setLastCompaction.bindLong(1, System.currentTimeMillis());
+                setLastCompaction.executeUpdateDelete();
+            } finally {
+                setLastCompaction.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        Log.d(TAG, "compact: ended :: " + folded + " movements folded");
+        return folded;
+    }
+
+    /**
+     * Return the time of the last compaction, in milliseconds since the epoch, or 0 if the
+     * ledger was never compacted.
+     */
+    static long getLastCompaction(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + StatsEntry.COLUMN_LAST_COMPACTION
+                + " FROM " + StatsEntry.TABLE_NAME, null);
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.android.storeinventory.data;
+
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.os.TraceCompat;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide registry of named timing spans. Every span is emitted as a trace section, so
+ * it shows up in systrace, and its duration is added to a cumulative histogram for its name.
+ * The first duration of every name is kept apart, which is the cold start cost of that span.
+ *
+ * Spans are used like this, always on the same thread:
+ * <pre>
+ *     long start = TimingRegistry.begin(TimingRegistry.SPAN_PROVIDER_QUERY);
+ *     try {
+ *         ...
+ *     } finally {
+ *         TimingRegistry.end(TimingRegistry.SPAN_PROVIDER_QUERY, start);
+ *     }
+ * </pre>
+ *
+ * The histograms can be read with {@link #getStats}, and are printed by
+ * {@code adb shell dumpsys activity provider com.example.android.storeinventory}.
+ *
+ * Spans end on the UI thread, in every bind of a catalog row, so recording takes no lock:
+ * the histograms are kept in a concurrent map and counted with atomic counters. A histogram
+ * read while spans end may be a few spans behind in some of its counters.
+ */
+public final class TimingRegistry {
+
+    /** Creation of the catalog screen */
+    public static final String SPAN_CATALOG_CREATE = "CatalogActivity.onCreate";
+
+    /** First open of the database, including its creation or upgrade */
+    public static final String SPAN_DB_OPEN = "InventoryDbHelper.open";
+
+    /** Creation of the schema on a fresh install */
+    public static final String SPAN_DB_CREATE = "InventoryDbHelper.onCreate";
+
+    /** Upgrade of the schema to the current version */
+    public static final String SPAN_DB_UPGRADE = "InventoryDbHelper.onUpgrade";
+
+    /** Every query of the provider */
+    public static final String SPAN_PROVIDER_QUERY = "InventoryProvider.query";
+
+    /** Every bind of a catalog row */
+    public static final String SPAN_BIND_ROW = "ItemListAdapter.onBindViewHolder";
+
+    /** Every compaction of the stock movements ledger */
+    public static final String SPAN_LEDGER_COMPACTION = "StockLedger.compact";
+
+    /** Every run of the incremental vacuum, or the one-off switch to it */
+    public static final String SPAN_RECLAIM_SPACE = "DatabaseMaintenance.reclaimSpace";
+
+    /**
+     * Upper bounds of the histogram buckets, in microseconds. Durations above the last bound
+     * are counted in an extra bucket.
+     */
+    private static final long[] BUCKET_BOUNDS_US = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000 };
+
+    private static final ConcurrentHashMap<String, Stats> sStats = new ConcurrentHashMap<>();
+
+    // To prevent someone from accidentally instantiating the registry class,
+    // give it an empty constructor.
+    private TimingRegistry() {}
+
+    /**
+     * Start a span with the given name, returning its start time to pass to {@link #end}.
+     */
+    public static long begin(String name) {
+        TraceCompat.beginSection(name);
+        return System.nanoTime();
+    }
+
+    /**
+     * End the span with the given name, started on this thread by {@link #begin}.
+     */
+    public static void end(String name, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        TraceCompat.endSection();
+        record(name, elapsedNanos);
+    }
+
+    /**
+     * Add a duration to the histogram of the given name, without locking.
+     */
+    static void record(String name, long elapsedNanos) {
+        Stats stats = sStats.get(name);
+        if (null == stats) {
+            // Only the first span of every name allocates
+            Stats newStats = new Stats(name);
+            stats = sStats.putIfAbsent(name, newStats);
+            if (null == stats) {
+                stats = newStats;
+            }
+        }
+        stats.add(elapsedNanos);
+    }
+
+    /**
+     * Return a copy of the histogram of the given name, or null if no span with that name
+     * has ended yet.
+     */
+    public static Stats getStats(String name) {
+        Stats stats = sStats.get(name);
+        return null == stats ? null : stats.copy();
+    }
+
+    /**
+     * Forget all the recorded durations.
+     */
+    @VisibleForTesting
+    public static synchronized void reset() {
+        sStats.clear();
+    }
+
+    /**
+     * Print all the histograms, sorted by name.
+     */
+    public static synchronized void dump(PrintWriter writer) {
+        writer.println("Timings (ms):");
+        for (Stats stats : new TreeMap<>(sStats).values()) {
+            writer.print("  ");
+            writer.println(stats);
+            writer.print("    ");
+            stats.dumpBuckets(writer);
+            writer.println();
+        }
+    }
+
+    /**
+     * Cumulative histogram of the durations of the spans with the same name.
+     */
+    public static final class Stats {
+
+        private final String mName;
+        private final AtomicLongArray mBuckets;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mFirstNanos = new AtomicLong();
+        private final AtomicLong mMinNanos = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        private Stats(String name) {
+            mName = name;
+            mBuckets = new AtomicLongArray(BUCKET_BOUNDS_US.length + 1);
+        }
+
+        private void add(long elapsedNanos) {
+            if (mCount.getAndIncrement() == 0) {
+                mFirstNanos.set(elapsedNanos);
+            }
+            mTotalNanos.addAndGet(elapsedNanos);
+            // Only retried when another thread changed the bound in between
+            long min;
+            do {
+                min = mMinNanos.get();
+            } while (elapsedNanos < min && !mMinNanos.compareAndSet(min, elapsedNanos));
+            long max;
+            do {
+                max = mMaxNanos.get();
+            } while (elapsedNanos > max && !mMaxNanos.compareAndSet(max, elapsedNanos));
+
+            long elapsedUs = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && elapsedUs > BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            mBuckets.incrementAndGet(bucket);
+        }
+
+        private Stats copy() {
+            Stats copy = new Stats(mName);
+            for (int i = 0; i < mBuckets.length(); i++) {
+                copy.mBuckets.set(i, mBuckets.get(i));
+            }
+            copy.mCount.set(mCount.get());
+            copy.mTotalNanos.set(mTotalNanos.get());
+            copy.mFirstNanos.set(mFirstNanos.get());
+            copy.mMinNanos.set(mMinNanos.get());
+            copy.mMaxNanos.set(mMaxNanos.get());
+            return copy;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** Number of spans that ended */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /** Sum of the durations of all the spans */
+        public long getTotalNanos() {
+            return mTotalNanos.get();
+        }
+
+        /** Duration of the first span, the cold one */
+        public long getFirstNanos() {
+            return mFirstNanos.get();
+        }
+
+        public long getMinNanos() {
+            return mMinNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos.get();
+        }
+
+        /**
+         * Number of spans in each bucket of the histogram. Bucket i counts the spans up to
+         * the i-th bound of 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500 and 1000 ms,
+         * the last bucket counts the longer ones.
+         */
+        public long[] getBuckets() {
+            long[] buckets = new long[mBuckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return buckets;
+        }
+
+        private void dumpBuckets(PrintWriter writer) {
+            for (int i = 0; i < mBuckets.length(); i++) {
+                long count = mBuckets.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                if (i < BUCKET_BOUNDS_US.length) {
+                    writer.print("<=" + formatMs(TimeUnit.MICROSECONDS.toNanos(BUCKET_BOUNDS_US[i])));
+                } else {
+                    writer.print(">" + formatMs(TimeUnit.MICROSECONDS.toNanos(BUCKET_BOUNDS_US[i - 1])));
+                }
+                writer.print(": " + count + "  ");
+            }
+        }
+
+        @Override
+        public String toString() {
+            long count = mCount.get();
+            long totalNanos = mTotalNanos.get();
+            return mName + ": count=" + count
+                    + " first=" + formatMs(mFirstNanos.get())
+                    + " min=" + formatMs(mMinNanos.get())
+                    + " mean=" + formatMs(count == 0 ? 0 : totalNanos / count)
+                    + " max=" + formatMs(mMaxNanos.get())
+                    + " total=" + formatMs(totalNanos);
+        }
+
+        private static String formatMs(long nanos) {
+            return String.format(Locale.US, "%.3f", nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.storeinventory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the text of the catalog rows. The bind path as a whole is benchmarked by
+ * ItemListAdapterBindTest, on a device.
+ */
+public class ItemRowFormatterTest {
+
+    private final ItemRowFormatter mFormatter =
+            new ItemRowFormatter("Quantities available is ", "Unknown Description");
+
+    @Test
+    public void formatQuantity_writesLabelAndNumber() {
+        char[] buffer = mFormatter.newQuantityBuffer();
+        assertEquals("Quantities available is 0", format(0, buffer));
+        assertEquals("Quantities available is 42", format(42, buffer));
+        assertEquals("Quantities available is -7", format(-7, buffer));
+        assertEquals("Quantities available is " + Integer.MAX_VALUE, format(Integer.MAX_VALUE, buffer));
+        assertEquals("Quantities available is " + Integer.MIN_VALUE, format(Integer.MIN_VALUE, buffer));
+    }
+
+    @Test
+    public void descOrDefault_replacesMissingDescription() {
+        assertEquals("Unknown Description", mFormatter.descOrDefault(null));
+        assertEquals("Unknown Description", mFormatter.descOrDefault(""));
+        assertEquals("Red apples", mFormatter.descOrDefault("Red apples"));
+    }
+
+    private String format(int quantity, char[] buffer) {
+        return new String(buffer, 0, mFormatter.formatQuantity(quantity, buffer));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.storeinventory.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the CSV line parser used by the catalog import.
+ */
+public class CsvLineParserTest {
+
+    private final CsvLineParser mParser = new CsvLineParser();
+    private final String[] mFields = new String[4];
+
+    @Test
+    public void plainFields_areSplitOnCommas() {
+        assertEquals(4, mParser.parse("Apples,Red apples,10,3", mFields));
+        assertArrayEquals(new String[] { "Apples", "Red apples", "10", "3" }, mFields);
+    }
+
+    @Test
+    public void quotedFields_keepCommasAndQuotes() {
+        assertEquals(4, mParser.parse("\"Apples, red\",\"The \"\"best\"\" ones\",10,3", mFields));
+        assertEquals("Apples, red", mFields[0]);
+        assertEquals("The \"best\" ones", mFields[1]);
+    }
+
+    @Test
+    public void emptyAndMissingFields() {
+        assertEquals(3, mParser.parse("Apples,,10", mFields));
+        assertEquals("", mFields[1]);
+        assertEquals("10", mFields[2]);
+        assertNull(mFields[3]);
+
+        assertEquals(1, mParser.parse("", mFields));
+        assertEquals("", mFields[0]);
+    }
+
+    @Test
+    public void extraFields_areCountedButIgnored() {
+        assertEquals(5, mParser.parse("a,b,c,d,e", mFields));
+        assertEquals("d", mFields[3]);
+    }
+
+    @Test
+    public void unclosedQuote_isAnError() {
+        assertEquals(-1, mParser.parse("\"Apples,10,3", mFields));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.storeinventory.data;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the CSV record reader used by the catalog import.
+ */
+public class CsvRecordReaderTest {
+
+    private final String[] mFields = new String[4];
+
+    @Test
+    public void quotedLineBreaks_joinTheLines() throws IOException {
+        CsvRecordReader records = reader("Apples,\"Red\nand sweet\",10,3\nPears,,1,2\n");
+
+        assertTrue(records.next(mFields));
+        assertEquals(4, records.getFieldCount());
+        assertEquals("Red\nand sweet", mFields[1]);
+        assertEquals("10", mFields[2]);
+        assertEquals(2, records.getLinesRead());
+
+        assertTrue(records.next(mFields));
+        assertEquals("Pears", mFields[0]);
+        assertEquals(3, records.getLinesRead());
+        assertFalse(records.next(mFields));
+    }
+
+    @Test
+    public void unclosedQuote_onlySkipsItsLine() throws IOException {
+        CsvRecordReader records = reader("\"Figs,Unclosed quote,1,1\nKiwis,,2,3\n\nPlums,,4,5");
+
+        assertTrue(records.next(mFields));
+        assertEquals(-1, records.getFieldCount());
+        assertEquals(1, records.getLinesRead());
+
+        assertTrue(records.next(mFields));
+        assertEquals(4, records.getFieldCount());
+        assertEquals("Kiwis", mFields[0]);
+
+        assertTrue(records.next(mFields));
+        assertEquals("", records.getText());
+
+        assertTrue(records.next(mFields));
+        assertEquals("Plums", mFields[0]);
+        assertEquals(4, records.getLinesRead());
+        assertFalse(records.next(mFields));
+    }
+
+    @Test
+    public void longRecord_isCutAtTheLineLimit() throws IOException {
+        // One line more than a record may span
+        StringBuilder csv = new StringBuilder("Apples,\"Too long");
+        for (int i = 1; i <= CsvRecordReader.MAX_RECORD_LINES; i++) {
+            csv.append("\nline ").append(i);
+        }
+        csv.append("\",1,1\n");
+        CsvRecordReader records = reader(csv.toString());
+
+        assertTrue(records.next(mFields));
+        assertEquals(-1, records.getFieldCount());
+        assertTrue(records.next(mFields));
+        assertEquals("line 1", records.getText());
+    }
+
+    private static CsvRecordReader reader(String csv) {
+        return new CsvRecordReader(new BufferedReader(new StringReader(csv)));
+    }
+}